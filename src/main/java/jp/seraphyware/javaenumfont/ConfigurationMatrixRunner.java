@@ -0,0 +1,369 @@
+package jp.seraphyware.javaenumfont;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JDKとシステムプロパティの組み合わせごとに子プロセスのJVMを起動して
+ * {@link HeadlessCollector}による収集を行い、結果を1つの比較表にまとめる.<br>
+ * 子プロセスは同時実行数を制限したスレッドプールから起動し、
+ * 標準出力を1行ずつ読み取る.<br>
+ * <br>
+ * 構成ファイルは1行1設定で、以下のキーを指定する.(#で始まる行はコメント)<br>
+ * <pre>
+ * jdk=/usr/lib/jvm/java-8-openjdk
+ * jdk=/usr/lib/jvm/java-17-openjdk
+ * props=
+ * props=-Dsun.java2d.xrender=false -Dawt.useSystemAAFontSettings=lcd
+ * threads=4
+ * timeout=120
+ * </pre>
+ * jdkを省略した場合は実行中のJDKを、propsを省略した場合は追加のプロパティなしの構成を使う.<br>
+ * propsの値は空白で区切られたJVMの引数である.<br>
+ * timeoutは子プロセス1つあたりの制限時間(秒)で、超えた場合は子プロセスを強制終了する.<br>
+ */
+final class ConfigurationMatrixRunner {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String NEWLINE = System.getProperty("line.separator");
+
+    /**
+     * JDKとシステムプロパティの組み合わせ
+     */
+    private static final class Configuration {
+
+        final String jdk;
+
+        final List<String> jvmArgs;
+
+        Configuration(String jdk, List<String> jvmArgs) {
+            this.jdk = jdk;
+            this.jvmArgs = jvmArgs;
+        }
+
+        String getLabel() {
+            StringBuilder buf = new StringBuilder(jdk);
+            for (String arg : jvmArgs) {
+                buf.append(' ').append(arg);
+            }
+            return buf.toString();
+        }
+    }
+
+    /**
+     * 子プロセスの実行結果
+     */
+    private static final class Result {
+
+        final Map<String, String> properties = new HashMap<>();
+
+        /**
+         * フォント名ごとのグリフの判定結果
+         */
+        final Map<String, String> fonts = new LinkedHashMap<>();
+
+        long collectMillis = -1;
+
+        long wallMillis;
+
+        int exitCode;
+
+        String error;
+    }
+
+    private final List<Configuration> configurations = new ArrayList<>();
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 子プロセス1つあたりの制限時間(秒)
+     */
+    private long timeoutSeconds = 120;
+
+    /**
+     * 構成ファイルを読み込む.
+     *
+     * @param file 構成ファイル
+     * @throws IOException
+     */
+    public void load(File file) throws IOException {
+        List<String> jdks = new ArrayList<>();
+        List<List<String>> propSets = new ArrayList<>();
+
+        try (FileInputStream fis = new FileInputStream(file);
+                BufferedReader rd = new BufferedReader(
+                        new InputStreamReader(fis, UTF8))) {
+            String line;
+            while ((line = rd.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int pos = line.indexOf('=');
+                if (pos < 0) {
+                    throw new IOException("invalid line: " + line);
+                }
+                String key = line.substring(0, pos).trim();
+                String value = line.substring(pos + 1).trim();
+                if ("jdk".equals(key)) {
+                    jdks.add(value);
+                } else if ("props".equals(key)) {
+                    propSets.add(value.isEmpty() ? Collections.<String>emptyList()
+                            : Arrays.asList(value.split("\\s+")));
+                } else if ("threads".equals(key)) {
+                    threads = Math.max(1, Integer.parseInt(value));
+                } else if ("timeout".equals(key)) {
+                    timeoutSeconds = Math.max(1, Long.parseLong(value));
+                } else {
+                    throw new IOException("unknown key: " + key);
+                }
+            }
+        }
+
+        if (jdks.isEmpty()) {
+            jdks.add(System.getProperty("java.home"));
+        }
+        if (propSets.isEmpty()) {
+            propSets.add(Collections.<String>emptyList());
+        }
+        for (String jdk : jdks) {
+            for (List<String> jvmArgs : propSets) {
+                configurations.add(new Configuration(jdk, jvmArgs));
+            }
+        }
+    }
+
+    /**
+     * すべての構成の子プロセスを実行し、比較表を出力する.
+     *
+     * @param wr 出力先
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run(Writer wr) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Result> results = new ArrayList<>();
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (final Configuration configuration : configurations) {
+                futures.add(executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws Exception {
+                        return execute(configuration);
+                    }
+                }));
+            }
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException ex) {
+                    throw new IOException(ex.getCause());
+                }
+            }
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        writeComparison(wr, results);
+    }
+
+    /**
+     * 1つの構成の子プロセスを実行し、標準出力を逐次読み取る.
+     *
+     * @param configuration 構成
+     * @return 実行結果
+     */
+    private Result execute(Configuration configuration) throws IOException {
+        Result result = new Result();
+
+        List<String> command = new ArrayList<>();
+        command.add(new File(new File(configuration.jdk, "bin"), "java")
+                .getPath());
+        command.add("-Djava.awt.headless=true");
+        command.addAll(configuration.jvmArgs);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(JavaEnumFont.class.getName());
+        command.add("--collect");
+
+        long start = System.currentTimeMillis();
+        final Process process;
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = pb.start();
+
+        } catch (IOException ex) {
+            result.error = ex.toString();
+            result.exitCode = -1;
+            return result;
+        }
+
+        // 制限時間を超えたら子プロセスを強制終了する (標準出力の読み取りも終わる)
+        final boolean[] timedOut = new boolean[1];
+        Thread watchdog = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                        synchronized (timedOut) {
+                            timedOut[0] = true;
+                        }
+                        process.destroyForcibly();
+                    }
+                } catch (InterruptedException ex) {
+                    process.destroyForcibly();
+                }
+            }
+        }, "ConfigurationMatrixRunner-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+
+        try (BufferedReader rd = new BufferedReader(new InputStreamReader(
+                process.getInputStream(), UTF8))) {
+            String line;
+            while ((line = rd.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (HeadlessCollector.PROPERTY.equals(fields[0])
+                        && fields.length >= 3) {
+                    result.properties.put(fields[1], fields[2]);
+
+                } else if (HeadlessCollector.FONT.equals(fields[0])
+                        && fields.length >= 5) {
+                    result.fonts.put(fields[2], fields[4]);
+
+                } else if (HeadlessCollector.TIME.equals(fields[0])
+                        && fields.length >= 2) {
+                    result.collectMillis = Long.parseLong(fields[1]);
+                }
+            }
+        }
+
+        try {
+            result.exitCode = process.waitFor();
+            watchdog.interrupt();
+            watchdog.join();
+        } catch (InterruptedException ex) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        result.wallMillis = System.currentTimeMillis() - start;
+        synchronized (timedOut) {
+            if (timedOut[0]) {
+                result.error = "timeout (" + timeoutSeconds + "s)";
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 構成ごとの実行時間と、システムプロパティおよびフォントごとの比較表を出力する.<br>
+     * 構成によって値が異なる行には、Diffのカラムに*を付ける.<br>
+     */
+    private void writeComparison(Writer wr, List<Result> results)
+            throws IOException {
+        wr.write("[Configurations]");
+        wr.write(NEWLINE);
+        writeRow(wr, "No", "Configuration", "Java Version", "Exit",
+                "Wall ms", "Collect ms", "Fonts", "Error");
+        for (int idx = 0; idx < results.size(); idx++) {
+            Result result = results.get(idx);
+            writeRow(wr, "#" + (idx + 1),
+                    configurations.get(idx).getLabel(),
+                    result.properties.get("java.version"),
+                    Integer.toString(result.exitCode),
+                    Long.toString(result.wallMillis),
+                    Long.toString(result.collectMillis),
+                    Integer.toString(result.fonts.size()),
+                    result.error);
+        }
+        wr.write(NEWLINE);
+
+        List<Map<String, String>> properties = new ArrayList<>();
+        List<Map<String, String>> fonts = new ArrayList<>();
+        for (Result result : results) {
+            properties.add(result.properties);
+            fonts.add(result.fonts);
+        }
+        writeTable(wr, "Properties", "Key", properties);
+        writeTable(wr, "Comparison", "Name", fonts);
+        wr.flush();
+    }
+
+    /**
+     * キーごとに構成ごとの値を並べた表を出力する.
+     *
+     * @param wr 出力先
+     * @param title 表の題名
+     * @param keyTitle キーのカラム名
+     * @param values 構成ごとのキーと値の対応
+     */
+    private static void writeTable(Writer wr, String title, String keyTitle,
+            List<Map<String, String>> values) throws IOException {
+        TreeSet<String> keys = new TreeSet<>();
+        for (Map<String, String> map : values) {
+            keys.addAll(map.keySet());
+        }
+
+        wr.write("[" + title + "]");
+        wr.write(NEWLINE);
+        String[] header = new String[values.size() + 2];
+        header[0] = keyTitle;
+        header[1] = "Diff";
+        for (int idx = 0; idx < values.size(); idx++) {
+            header[idx + 2] = "#" + (idx + 1);
+        }
+        writeRow(wr, header);
+
+        for (String key : keys) {
+            String[] row = new String[values.size() + 2];
+            row[0] = key;
+            TreeSet<String> distinct = new TreeSet<>();
+            for (int idx = 0; idx < values.size(); idx++) {
+                String value = values.get(idx).get(key);
+                if (value == null) {
+                    value = "(missing)";
+                }
+                row[idx + 2] = value;
+                distinct.add(value);
+            }
+            row[1] = distinct.size() > 1 ? "*" : "";
+            writeRow(wr, row);
+        }
+        wr.write(NEWLINE);
+    }
+
+    private static void writeRow(Writer wr, String... values) throws IOException {
+        for (int idx = 0; idx < values.length; idx++) {
+            if (idx != 0) {
+                wr.write("\t");
+            }
+            if (values[idx] != null) {
+                wr.write(values[idx]);
+            }
+        }
+        wr.write(NEWLINE);
+    }
+}
@@ -0,0 +1,457 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * グリフのアウトラインが同一、または、ほぼ同一のフォントを検出する.<br>
+ * 固定のプローブ文字のアウトラインを{@link GlyphVector#getGlyphOutline(int)}で取得してハッシュ化し、
+ * 同じシグネチャをもつフォントをグループにまとめる.<br>
+ * ほぼ同一の判定では、座標を除いたパスの構造が同じフォントを候補とし、
+ * 対応する座標の差がすべて許容誤差以内であるフォント同士を連結してグループにまとめる.<br>
+ * シグネチャと座標の取得はフォントごとに独立しているため、スレッドプールで並列に行う.<br>
+ * 論理フォントは物理フォントの別名にすぎず、必ず重複として検出されるため対象外とする.<br>
+ * また、フォントにないプローブ文字の欠落グリフはアウトラインを比較しない.<br>
+ */
+final class DuplicateFontAnalyzer {
+
+    /**
+     * アウトラインを比較するプローブ文字
+     */
+    private static final String PROBE_TEXT = "AaBbGgQqRrWw0123&@あアカ漢字・编";
+
+    /**
+     * アウトラインを取得するフォントサイズ
+     */
+    private static final float OUTLINE_SIZE = 64f;
+
+    /**
+     * 完全一致とみなす座標の量子化単位 (1/16単位)
+     */
+    private static final float EXACT_SCALE = 16f;
+
+    /**
+     * ほぼ同一とみなす座標の差の許容誤差 (単位)
+     */
+    private static final float NEAR_TOLERANCE = 2f;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * 論理フォントのファミリー名
+     */
+    private static final Set<String> LOGICAL_FAMILIES = new HashSet<>(
+            Arrays.asList(Font.DIALOG, Font.DIALOG_INPUT, Font.SANS_SERIF,
+                    Font.SERIF, Font.MONOSPACED));
+
+    /**
+     * 重複したフォントのグループ
+     */
+    public static final class Group {
+
+        /**
+         * 完全一致であるか、ほぼ同一であるか.<br>
+         * ほぼ同一のグループのシグネチャは、パスの構造のハッシュとする.<br>
+         */
+        private final boolean exact;
+
+        private final long signature;
+
+        /**
+         * グループに属するフォントのインデックス
+         */
+        private final int[] fontIndices;
+
+        Group(boolean exact, long signature, int[] fontIndices) {
+            this.exact = exact;
+            this.signature = signature;
+            this.fontIndices = fontIndices;
+        }
+
+        public boolean isExact() {
+            return exact;
+        }
+
+        public long getSignature() {
+            return signature;
+        }
+
+        public int[] getFontIndices() {
+            return fontIndices;
+        }
+    }
+
+    private final Font[] fonts;
+
+    /**
+     * コンストラクタ
+     *
+     * @param fonts 対象フォント
+     */
+    public DuplicateFontAnalyzer(Font[] fonts) {
+        this.fonts = fonts;
+    }
+
+    /**
+     * すべてのフォントのシグネチャを並列に計算し、重複したフォントのグループを返す.<br>
+     * 完全一致のグループを先に、ほぼ同一のグループを後に返す.<br>
+     * ほぼ同一の判定では、候補のフォントについてのみ座標を取得して比較する.<br>
+     *
+     * @return 重複したフォントのグループ
+     * @throws InterruptedException 中断された場合
+     */
+    public List<Group> analyze() throws InterruptedException {
+        int nThreads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads,
+                new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DuplicateFontAnalyzer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Callable<long[]>> tasks = new ArrayList<>(fonts.length);
+            for (final Font font : fonts) {
+                tasks.add(new Callable<long[]>() {
+                    @Override
+                    public long[] call() throws Exception {
+                        if (isLogicalFont(font)) {
+                            return null;
+                        }
+                        return computeSignatures(font);
+                    }
+                });
+            }
+
+            List<Future<long[]>> futures = executor.invokeAll(tasks);
+
+            long[][] signatures = new long[fonts.length][];
+            for (int idx = 0; idx < fonts.length; idx++) {
+                signatures[idx] = getResult(futures.get(idx));
+            }
+
+            List<Group> results = new ArrayList<>(groupExact(signatures));
+            for (List<Integer> candidates : findNearCandidates(signatures)) {
+                results.addAll(groupNear(executor, candidates, signatures));
+            }
+            return Collections.unmodifiableList(results);
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> T getResult(Future<T> future)
+            throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /**
+     * 完全一致のシグネチャごとにフォントをまとめる.
+     *
+     * @param signatures フォントごとの完全一致用と構造のシグネチャ、対象外のフォントはnull
+     * @return 完全一致のグループ
+     */
+    private List<Group> groupExact(long[][] signatures) {
+        Map<Long, List<Integer>> exactGroups = new LinkedHashMap<>();
+        for (int idx = 0; idx < fonts.length; idx++) {
+            if (signatures[idx] != null) {
+                put(exactGroups, signatures[idx][0], idx);
+            }
+        }
+
+        List<Group> results = new ArrayList<>();
+        for (Map.Entry<Long, List<Integer>> entry : exactGroups.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                results.add(new Group(true, entry.getKey(),
+                        toArray(entry.getValue())));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * パスの構造が同じで、異なる完全一致のシグネチャを含むフォントの組を
+     * ほぼ同一の候補として求める.
+     *
+     * @param signatures フォントごとの完全一致用と構造のシグネチャ、対象外のフォントはnull
+     * @return 候補となるフォントのインデックスの組
+     */
+    private List<List<Integer>> findNearCandidates(long[][] signatures) {
+        Map<Long, List<Integer>> shapeGroups = new LinkedHashMap<>();
+        for (int idx = 0; idx < fonts.length; idx++) {
+            if (signatures[idx] != null) {
+                put(shapeGroups, signatures[idx][1], idx);
+            }
+        }
+
+        List<List<Integer>> candidates = new ArrayList<>();
+        for (List<Integer> indices : shapeGroups.values()) {
+            Set<Long> distinct = new HashSet<>();
+            for (int idx : indices) {
+                distinct.add(signatures[idx][0]);
+            }
+            if (distinct.size() > 1) {
+                candidates.add(indices);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * 構造が同じ候補のフォントの座標を比較し、許容誤差以内のフォント同士を連結してまとめる.<br>
+     * 異なる完全一致のシグネチャを含むグループのみを返す.<br>
+     *
+     * @param executor 座標を取得するスレッドプール
+     * @param candidates 候補のフォントのインデックス
+     * @param signatures フォントごとの完全一致用と構造のシグネチャ
+     * @return ほぼ同一のグループ
+     * @throws InterruptedException 中断された場合
+     */
+    private List<Group> groupNear(ExecutorService executor,
+            List<Integer> candidates, long[][] signatures)
+            throws InterruptedException {
+        int cnt = candidates.size();
+        List<Callable<float[]>> tasks = new ArrayList<>(cnt);
+        for (final int idx : candidates) {
+            tasks.add(new Callable<float[]>() {
+                @Override
+                public float[] call() throws Exception {
+                    return computeCoordinates(fonts[idx]);
+                }
+            });
+        }
+        List<Future<float[]>> futures = executor.invokeAll(tasks);
+        float[][] coords = new float[cnt][];
+        for (int i = 0; i < cnt; i++) {
+            coords[i] = getResult(futures.get(i));
+        }
+
+        // 許容誤差以内の組を連結する (union-find)
+        int[] parents = new int[cnt];
+        for (int i = 0; i < cnt; i++) {
+            parents[i] = i;
+        }
+        for (int i = 0; i < cnt; i++) {
+            for (int j = i + 1; j < cnt; j++) {
+                if (isNear(coords[i], coords[j])) {
+                    parents[findRoot(parents, j)] = findRoot(parents, i);
+                }
+            }
+        }
+
+        Map<Integer, List<Integer>> clusters = new LinkedHashMap<>();
+        for (int i = 0; i < cnt; i++) {
+            Integer root = findRoot(parents, i);
+            List<Integer> indices = clusters.get(root);
+            if (indices == null) {
+                indices = new ArrayList<>();
+                clusters.put(root, indices);
+            }
+            indices.add(candidates.get(i));
+        }
+
+        List<Group> results = new ArrayList<>();
+        for (List<Integer> indices : clusters.values()) {
+            Set<Long> distinct = new HashSet<>();
+            for (int idx : indices) {
+                distinct.add(signatures[idx][0]);
+            }
+            if (distinct.size() > 1) {
+                results.add(new Group(false, signatures[indices.get(0)][1],
+                        toArray(indices)));
+            }
+        }
+        return results;
+    }
+
+    private static int findRoot(int[] parents, int idx) {
+        while (parents[idx] != idx) {
+            parents[idx] = parents[parents[idx]];
+            idx = parents[idx];
+        }
+        return idx;
+    }
+
+    /**
+     * 同じ構造のアウトラインの座標の差が、すべて許容誤差以内であるか判定する.
+     */
+    private static boolean isNear(float[] coords1, float[] coords2) {
+        if (coords1.length != coords2.length) {
+            return false;
+        }
+        for (int i = 0; i < coords1.length; i++) {
+            if (Math.abs(coords1[i] - coords2[i]) > NEAR_TOLERANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void put(Map<Long, List<Integer>> groups, long signature,
+            int idx) {
+        List<Integer> indices = groups.get(signature);
+        if (indices == null) {
+            indices = new ArrayList<>();
+            groups.put(signature, indices);
+        }
+        indices.add(idx);
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] ret = new int[values.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = values.get(i);
+        }
+        return ret;
+    }
+
+    /**
+     * 論理フォント(Dialog, SansSerifなど)であるか判定する.
+     *
+     * @param font 対象フォント
+     * @return 論理フォントであればtrue
+     */
+    static boolean isLogicalFont(Font font) {
+        return LOGICAL_FAMILIES.contains(font.getFamily(Locale.ENGLISH));
+    }
+
+    /**
+     * プローブ文字のアウトラインから、完全一致用とパスの構造の2つのシグネチャを計算する.<br>
+     * 構造のシグネチャは座標を含まず、セグメントの種類とグリフの区切りだけをハッシュ化したものである.<br>
+     * 欠落グリフはアウトラインの代わりに欠落を示す値だけをハッシュに加える.<br>
+     *
+     * @param font 対象フォント
+     * @return 完全一致用、構造のシグネチャの配列、プローブ文字が1つもなければnull
+     */
+    static long[] computeSignatures(Font font) {
+        GlyphVector gv = createProbeGlyphs(font);
+        int missingCode = gv.getFont().getMissingGlyphCode();
+
+        long exact = FNV_OFFSET;
+        long shape = FNV_OFFSET;
+        boolean found = false;
+        float[] coords = new float[6];
+        int numGlyphs = gv.getNumGlyphs();
+        for (int i = 0; i < numGlyphs; i++) {
+            if (gv.getGlyphCode(i) == missingCode) {
+                exact = hash(exact, -2);
+                shape = hash(shape, -2);
+                continue;
+            }
+            found = true;
+            PathIterator ite = gv.getGlyphOutline(i).getPathIterator(null);
+            while (!ite.isDone()) {
+                int type = ite.currentSegment(coords);
+                exact = hash(exact, type);
+                shape = hash(shape, type);
+                int numCoords = getNumCoords(type);
+                for (int j = 0; j < numCoords; j++) {
+                    exact = hash(exact, Math.round(coords[j] * EXACT_SCALE));
+                }
+                ite.next();
+            }
+            // グリフの区切り
+            exact = hash(exact, -1);
+            shape = hash(shape, -1);
+        }
+        if (!found) {
+            return null;
+        }
+        return new long[]{exact, shape};
+    }
+
+    /**
+     * プローブ文字のアウトラインの座標を、パスの順に並べて取得する.<br>
+     * 送り幅の差が後続のグリフに累積しないように、座標はグリフごとの原点からの位置とする.<br>
+     * 欠落グリフの座標は含めない.<br>
+     *
+     * @param font 対象フォント
+     * @return 座標の配列
+     */
+    static float[] computeCoordinates(Font font) {
+        GlyphVector gv = createProbeGlyphs(font);
+        int missingCode = gv.getFont().getMissingGlyphCode();
+
+        float[] values = new float[1024];
+        int cnt = 0;
+        float[] coords = new float[6];
+        int numGlyphs = gv.getNumGlyphs();
+        for (int i = 0; i < numGlyphs; i++) {
+            if (gv.getGlyphCode(i) == missingCode) {
+                continue;
+            }
+            Point2D origin = gv.getGlyphPosition(i);
+            AffineTransform at = AffineTransform.getTranslateInstance(
+                    -origin.getX(), -origin.getY());
+            PathIterator ite = gv.getGlyphOutline(i).getPathIterator(at);
+            while (!ite.isDone()) {
+                int numCoords = getNumCoords(ite.currentSegment(coords));
+                if (cnt + numCoords > values.length) {
+                    values = Arrays.copyOf(values, values.length * 2);
+                }
+                System.arraycopy(coords, 0, values, cnt, numCoords);
+                cnt += numCoords;
+                ite.next();
+            }
+        }
+        return Arrays.copyOf(values, cnt);
+    }
+
+    private static GlyphVector createProbeGlyphs(Font font) {
+        FontRenderContext frc = new FontRenderContext(null, false, false);
+        return font.deriveFont(OUTLINE_SIZE).createGlyphVector(frc, PROBE_TEXT);
+    }
+
+    private static int getNumCoords(int type) {
+        switch (type) {
+            case PathIterator.SEG_MOVETO:
+            case PathIterator.SEG_LINETO:
+                return 2;
+            case PathIterator.SEG_QUADTO:
+                return 4;
+            case PathIterator.SEG_CUBICTO:
+                return 6;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * FNV-1aによりハッシュ値に整数を加える.
+     */
+    private static long hash(long h, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            h ^= (value >>> shift) & 0xff;
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,75 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.Font;
+
+/**
+ * フォントがもつグリフの種類(ひらがな、日本語、サロゲート、簡体字、絵文字)を判定する.<br>
+ * 判定結果はビットマスクとして扱い、複数フォントの結果を論理和で集約できるようにしている.<br>
+ */
+final class FontCoverage {
+
+    public static final int HIRAGANA = 0x01;
+
+    public static final int JAPANESE = 0x02;
+
+    public static final int SURROGATE = 0x04;
+
+    public static final int SIMPLIFIED_CHINESE = 0x08;
+
+    public static final int EMOJI = 0x10;
+
+    /**
+     * ビットの並びに対応する表示名
+     */
+    private static final String[] TITLES = {"ひらがな", "日本語", "サロゲート",
+        "簡体字", "絵文字"};
+
+    private FontCoverage() {
+        super();
+    }
+
+    /**
+     * フォントがもつグリフを判定してビットマスクとして返す.
+     *
+     * @param font 対象フォント
+     * @return 判定結果のビットマスク
+     */
+    public static int probe(Font font) {
+        int mask = 0;
+        if (font.canDisplay('あ')) {
+            mask |= HIRAGANA;
+        }
+        if (font.canDisplay('あ') && font.canDisplay('・')) {
+            mask |= JAPANESE;
+        }
+        if (font.canDisplay(0x29E3D)) {
+            mask |= SURROGATE;
+        }
+        if (font.canDisplay('编')) {
+            mask |= SIMPLIFIED_CHINESE;
+        }
+        if (font.canDisplay(0x29E3D) && font.canDisplay(0x1F623)) {
+            mask |= EMOJI;
+        }
+        return mask;
+    }
+
+    /**
+     * ビットマスクを表示用の文字列に変換する.
+     *
+     * @param mask 判定結果のビットマスク
+     * @return カンマ区切りの表示名
+     */
+    public static String toString(int mask) {
+        StringBuilder buf = new StringBuilder();
+        for (int idx = 0; idx < TITLES.length; idx++) {
+            if ((mask & (1 << idx)) != 0) {
+                if (buf.length() > 0) {
+                    buf.append(", ");
+                }
+                buf.append(TITLES[idx]);
+            }
+        }
+        return buf.toString();
+    }
+}
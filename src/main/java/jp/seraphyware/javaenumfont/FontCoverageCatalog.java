@@ -0,0 +1,46 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.Font;
+import java.util.Arrays;
+
+/**
+ * フォントごとの{@link FontCoverage}の判定結果を、フォントのインデックスごとにキャッシュする.
+ */
+final class FontCoverageCatalog {
+
+    private final Font[] fonts;
+
+    /**
+     * 判定結果のビットマスク、未判定ならば-1
+     */
+    private final int[] masks;
+
+    /**
+     * コンストラクタ
+     *
+     * @param fonts 対象フォント
+     */
+    public FontCoverageCatalog(Font[] fonts) {
+        this.fonts = fonts;
+        this.masks = new int[fonts.length];
+        Arrays.fill(masks, -1);
+    }
+
+    /**
+     * 指定したフォントの判定結果を取得する.<br>
+     * 未判定であれば判定して結果をキャッシュする.<br>
+     *
+     * @param idx フォントのインデックス
+     * @return 判定結果のビットマスク
+     */
+    public synchronized int getMask(int idx) {
+        if (masks[idx] < 0) {
+            masks[idx] = FontCoverage.probe(fonts[idx]);
+        }
+        return masks[idx];
+    }
+
+    public synchronized boolean isProbed(int idx) {
+        return masks[idx] >= 0;
+    }
+}
@@ -0,0 +1,315 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.Font;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableModel;
+
+/**
+ * フォントをファミリーごとにまとめて表示するツリー状のテーブルモデル.<br>
+ * 初期状態ではファミリーの行だけを保持し、ファミリーの行を展開したときに
+ * はじめて個々のフォント(フェイス)の行を生成する.<br>
+ * グリフの判定は{@link FontCoverageCatalog}の結果を用い、
+ * バックグラウンドで判定されるまでは空欄とする.<br>
+ * ファミリーの行の判定結果は、すべてのフェイスの判定結果の論理和とする.<br>
+ * フォント一覧のテーブルモデルの行(フォント)の更新を、対応するファミリーとフェイスの行の更新として通知する.<br>
+ */
+final class FontFamilyTableModel extends AbstractTableModel
+        implements FontWorkScheduler.FontRowModel {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] COLUMN_NAMES = {"Family", "Name", "Posix",
+        "Japanese", "Faces"};
+
+    /**
+     * ファミリーの行
+     */
+    private static final class FamilyNode {
+
+        final String family;
+
+        /**
+         * ファミリーに属するフォントのインデックス
+         */
+        final int[] fontIndices;
+
+        /**
+         * 展開中であるか
+         */
+        boolean expanded;
+
+        /**
+         * 展開時に生成されたフェイスの行、未展開ならばnull
+         */
+        List<FaceNode> faces;
+
+        FamilyNode(String family, int[] fontIndices) {
+            this.family = family;
+            this.fontIndices = fontIndices;
+        }
+    }
+
+    /**
+     * フェイスの行
+     */
+    private static final class FaceNode {
+
+        final int fontIndex;
+
+        FaceNode(int fontIndex) {
+            this.fontIndex = fontIndex;
+        }
+    }
+
+    private final Font[] fonts;
+
+    private final FontCoverageCatalog coverage;
+
+    private final List<FamilyNode> families;
+
+    /**
+     * 表示中の行 (FamilyNodeまたはFaceNode)
+     */
+    private final List<Object> rows;
+
+    /**
+     * コンストラクタ
+     *
+     * @param fonts すべてのフォント
+     * @param coverage フォントがもつグリフの判定
+     * @param fontsModel 行がフォントのインデックスに対応するフォント一覧のテーブルモデル
+     */
+    public FontFamilyTableModel(Font[] fonts, FontCoverageCatalog coverage,
+            TableModel fontsModel) {
+        this.fonts = fonts;
+        this.coverage = coverage;
+
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int idx = 0; idx < fonts.length; idx++) {
+            String family = fonts[idx].getFamily(Locale.ENGLISH);
+            List<Integer> indices = groups.get(family);
+            if (indices == null) {
+                indices = new ArrayList<>();
+                groups.put(family, indices);
+            }
+            indices.add(idx);
+        }
+
+        List<String> names = new ArrayList<>(groups.keySet());
+        Collections.sort(names, String.CASE_INSENSITIVE_ORDER);
+
+        families = new ArrayList<>(names.size());
+        for (String name : names) {
+            List<Integer> indices = groups.get(name);
+            int[] fontIndices = new int[indices.size()];
+            for (int i = 0; i < fontIndices.length; i++) {
+                fontIndices[i] = indices.get(i);
+            }
+            families.add(new FamilyNode(name, fontIndices));
+        }
+
+        rows = new ArrayList<Object>(families);
+
+        fontsModel.addTableModelListener(new TableModelListener() {
+            @Override
+            public void tableChanged(TableModelEvent e) {
+                fontsUpdated(e);
+            }
+        });
+    }
+
+    /**
+     * フォント一覧のテーブルモデルの変更を、このモデルの行の更新として通知する.<br>
+     * 更新されたフォントを含む行の範囲をまとめて通知する.<br>
+     */
+    private void fontsUpdated(TableModelEvent e) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        int first = e.getFirstRow();
+        int last = e.getLastRow();
+        if (first < 0 || last - first >= rows.size()) {
+            fireTableRowsUpdated(0, rows.size() - 1);
+            return;
+        }
+        int minRow = Integer.MAX_VALUE;
+        int maxRow = -1;
+        for (int row = 0; row < rows.size(); row++) {
+            for (int fontIndex : getFontIndices(row)) {
+                if (fontIndex >= first && fontIndex <= last) {
+                    minRow = Math.min(minRow, row);
+                    maxRow = row;
+                    break;
+                }
+            }
+        }
+        if (maxRow >= 0) {
+            fireTableRowsUpdated(minRow, maxRow);
+        }
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        return String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Object node = rows.get(row);
+        String ret = null;
+        if (node instanceof FamilyNode) {
+            FamilyNode familyNode = (FamilyNode) node;
+            switch (column) {
+                case 0:
+                    ret = (familyNode.expanded ? "- " : "+ ") + familyNode.family;
+                    break;
+
+                case 3:
+                    ret = getCoverage(familyNode);
+                    break;
+
+                case 4:
+                    ret = Integer.toString(familyNode.fontIndices.length);
+                    break;
+            }
+
+        } else {
+            int fontIndex = ((FaceNode) node).fontIndex;
+            switch (column) {
+                case 1:
+                    ret = fonts[fontIndex].getName();
+                    break;
+
+                case 2:
+                    ret = fonts[fontIndex].getPSName();
+                    break;
+
+                case 3:
+                    if (coverage.isProbed(fontIndex)) {
+                        ret = FontCoverage.toString(coverage.getMask(fontIndex));
+                    }
+                    break;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * ファミリーのグリフ判定結果として、すべてのフェイスの判定結果の論理和を取得する.<br>
+     * 判定はバックグラウンドで行われるため、未判定のフェイスがあれば空欄とする.<br>
+     *
+     * @param familyNode ファミリー
+     * @return 判定結果の表示名、未判定のフェイスがあればnull
+     */
+    private String getCoverage(FamilyNode familyNode) {
+        int mask = 0;
+        for (int fontIndex : familyNode.fontIndices) {
+            if (!coverage.isProbed(fontIndex)) {
+                return null;
+            }
+            mask |= coverage.getMask(fontIndex);
+        }
+        return FontCoverage.toString(mask);
+    }
+
+    /**
+     * 指定した行のフォントのインデックスを取得する.<br>
+     * ファミリーの行であれば、ファミリーに属するすべてのフォントを返す.<br>
+     *
+     * @param row 行
+     * @return フォントのインデックス
+     */
+    @Override
+    public int[] getFontIndices(int row) {
+        Object node = rows.get(row);
+        if (node instanceof FamilyNode) {
+            return ((FamilyNode) node).fontIndices;
+        }
+        return new int[]{((FaceNode) node).fontIndex};
+    }
+
+    /**
+     * 指定した行がファミリーの行であるか
+     *
+     * @param row 行
+     * @return ファミリーの行であればtrue
+     */
+    public boolean isFamilyRow(int row) {
+        return rows.get(row) instanceof FamilyNode;
+    }
+
+    /**
+     * 指定した行のフォントを取得する.<br>
+     * ファミリーの行であれば、ファミリーの代表フォントを返す.<br>
+     *
+     * @param row 行
+     * @return フォント
+     */
+    public Font getFontAt(int row) {
+        Object node = rows.get(row);
+        if (node instanceof FamilyNode) {
+            return fonts[((FamilyNode) node).fontIndices[0]];
+        }
+        return fonts[((FaceNode) node).fontIndex];
+    }
+
+    /**
+     * ファミリーの行の展開・折り畳みを切り替える.<br>
+     * フェイスの行は最初に展開したときに生成し、以降は再利用する.<br>
+     *
+     * @param row ファミリーの行
+     */
+    public void toggleExpanded(int row) {
+        Object node = rows.get(row);
+        if (!(node instanceof FamilyNode)) {
+            return;
+        }
+        FamilyNode familyNode = (FamilyNode) node;
+        if (familyNode.expanded) {
+            int count = familyNode.faces.size();
+            rows.subList(row + 1, row + 1 + count).clear();
+            familyNode.expanded = false;
+            fireTableRowsUpdated(row, row);
+            fireTableRowsDeleted(row + 1, row + count);
+            return;
+        }
+
+        if (familyNode.faces == null) {
+            List<FaceNode> faces = new ArrayList<>(familyNode.fontIndices.length);
+            for (int fontIndex : familyNode.fontIndices) {
+                faces.add(new FaceNode(fontIndex));
+            }
+            familyNode.faces = faces;
+        }
+
+        int count = familyNode.faces.size();
+        rows.addAll(row + 1, familyNode.faces);
+        familyNode.expanded = true;
+        fireTableRowsUpdated(row, row);
+        fireTableRowsInserted(row + 1, row + count);
+    }
+}
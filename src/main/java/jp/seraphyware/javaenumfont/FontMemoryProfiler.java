@@ -0,0 +1,402 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * フォントごとのメモリ使用量を計測する.<br>
+ * フォントを1つずつ読み込んでグリフを描画し、その前後のヒープ使用量
+ * ({@link MemoryMXBean})と常駐メモリ(RSS)の増加量、および読み込みに要した時間を記録する.<br>
+ * 同じプロセス内で計測する方法と、フォントごとに子プロセスのJVMを起動して計測する方法がある.<br>
+ * 子プロセスで計測する場合は、ほかのフォントの読み込みの影響を受けないため、より正確になる.<br>
+ * 同じプロセス内での計測は、すでに読み込まれたフォントやキャッシュを除いた増分の推定値となる.<br>
+ * 子プロセスは制限時間を超えたら強制終了し、フォントが見つからない場合とともに
+ * そのフォントの計測エラーとして記録する.<br>
+ * 計測結果は子プロセスを待つスレッドから書き込まれるため、結果の読み書きは同期化している.<br>
+ */
+final class FontMemoryProfiler {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * 子プロセスが出力する計測結果のレコードの種類
+     */
+    private static final String MEASUREMENT = "M";
+
+    /**
+     * 子プロセスが出力する計測エラーのレコードの種類
+     */
+    private static final String ERROR = "E";
+
+    /**
+     * 子プロセス1つあたりの制限時間(秒)
+     */
+    private static final long CHILD_TIMEOUT_SECONDS = 60;
+
+    /**
+     * 判定・描画するグリフのテキスト
+     */
+    private static final String PROBE_TEXT = "123456789ABCDEFG あいうえお 森鷗外 ・ 繫がる"
+            + " 编辑 𩸽 🎂";
+
+    /**
+     * グリフを描画するときのフォントサイズ
+     */
+    private static final float RENDER_SIZE = 24f;
+
+    /**
+     * 計測結果を受け取るリスナ
+     */
+    public interface Listener {
+
+        /**
+         * 1つのフォントの計測が完了したことを通知する.<br>
+         * 子プロセスで計測する場合は、任意のスレッドから呼び出される.<br>
+         *
+         * @param idx フォントのインデックス
+         */
+        void profiled(int idx);
+    }
+
+    private final Font[] fonts;
+
+    /**
+     * ヒープ使用量の増加量(バイト)
+     */
+    private final long[] heapDeltas;
+
+    /**
+     * 常駐メモリの増加量(KB)、計測できなければ-1
+     */
+    private final long[] rssDeltas;
+
+    /**
+     * 読み込みに要した時間(ナノ秒)
+     */
+    private final long[] loadNanos;
+
+    /**
+     * 子プロセスで計測したか
+     */
+    private final boolean[] isolated;
+
+    /**
+     * 計測エラーの内容、エラーでなければnull
+     */
+    private final String[] errors;
+
+    /**
+     * 計測済みであるか (エラーを含む)
+     */
+    private final boolean[] profiled;
+
+    /**
+     * コンストラクタ
+     *
+     * @param fonts 対象フォント
+     */
+    public FontMemoryProfiler(Font[] fonts) {
+        this.fonts = fonts;
+        this.heapDeltas = new long[fonts.length];
+        this.rssDeltas = new long[fonts.length];
+        this.loadNanos = new long[fonts.length];
+        this.isolated = new boolean[fonts.length];
+        this.errors = new String[fonts.length];
+        this.profiled = new boolean[fonts.length];
+    }
+
+    /**
+     * 同じプロセス内で、すべてのフォントを順番に計測する.<br>
+     * 描画処理自体の初期化を含めないように、論理フォントで一度計測を空実行しておく.<br>
+     * フォント一覧の判定などで読み込み済みのフォントは増加量が小さくなるため、
+     * 結果は増分の推定値である.<br>
+     * 計測の前後でGCを要求して、ヒープ使用量の揺らぎを抑える.<br>
+     *
+     * @param listener 計測結果を受け取るリスナ
+     * @throws InterruptedException 中断された場合
+     */
+    public void profileInProcess(Listener listener) throws InterruptedException {
+        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        measure(memoryBean, Font.DIALOG);
+        for (int idx = 0; idx < fonts.length; idx++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long[] measurement = measure(memoryBean, fonts[idx].getName());
+            setMeasurement(idx, measurement[0], measurement[1], measurement[2],
+                    false);
+            listener.profiled(idx);
+        }
+    }
+
+    /**
+     * フォントごとに子プロセスのJVMを起動して計測する.<br>
+     * 子プロセスは同時実行数を制限したスレッドプールから起動する.<br>
+     *
+     * @param threads 同時に実行する子プロセスの数
+     * @param listener 計測結果を受け取るリスナ
+     * @throws InterruptedException 中断された場合
+     * @throws IOException 子プロセスを実行できない場合
+     */
+    public void profileIsolated(int threads, final Listener listener)
+            throws InterruptedException, IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int idx = 0; idx < fonts.length; idx++) {
+                final int fontIdx = idx;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        executeChild(fontIdx);
+                        listener.profiled(fontIdx);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    throw new IOException(ex.getCause());
+                }
+            }
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 1つのフォントを計測する子プロセスを実行して、結果を取り込む.<br>
+     * 標準出力は別スレッドで読み取り、このスレッドは制限時間付きで子プロセスの終了を待つ.<br>
+     * 制限時間を超えた場合や中断された場合は子プロセスを強制終了し、標準出力を閉じさせる.<br>
+     *
+     * @param idx フォントのインデックス
+     */
+    private void executeChild(int idx) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                new File(new File(System.getProperty("java.home"), "bin"), "java")
+                .getPath(),
+                "-Djava.awt.headless=true",
+                "-cp", System.getProperty("java.class.path"),
+                JavaEnumFont.class.getName(),
+                "--profile-font", fonts[idx].getName()));
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        final Process process = pb.start();
+        final List<String> lines = Collections.synchronizedList(
+                new ArrayList<String>());
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (BufferedReader rd = new BufferedReader(new InputStreamReader(
+                        process.getInputStream(), UTF8))) {
+                    String line;
+                    while ((line = rd.readLine()) != null) {
+                        lines.add(line);
+                    }
+                } catch (IOException ex) {
+                    // 強制終了した場合は、それまでに読み取った行だけを用いる
+                }
+            }
+        }, "FontMemoryProfiler-reader");
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            if (!process.waitFor(CHILD_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                reader.join();
+                setError(idx, "timeout (" + CHILD_TIMEOUT_SECONDS + "s)");
+                return;
+            }
+            reader.join();
+
+        } finally {
+            process.destroyForcibly();
+        }
+
+        synchronized (lines) {
+            for (String line : lines) {
+                String[] fields = line.split("\t");
+                if (MEASUREMENT.equals(fields[0]) && fields.length >= 4) {
+                    setMeasurement(idx, Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]),
+                            Long.parseLong(fields[3]), true);
+                    return;
+                }
+                if (ERROR.equals(fields[0]) && fields.length >= 2) {
+                    setError(idx, fields[1]);
+                    return;
+                }
+            }
+        }
+        setError(idx, "exit code " + process.exitValue());
+    }
+
+    /**
+     * 子プロセスとして、指定した名前のフォントを計測して結果を出力する.<br>
+     * フォントの管理機構や描画処理自体の初期化は計測に含めないように、
+     * 論理フォントで一度計測を空実行してから計測する.<br>
+     * 存在しない名前のフォントは代替のフォント(Dialog)になるため、
+     * 計測後にフォント名かファミリー名が一致するか確認し、一致しなければエラーを出力する.<br>
+     *
+     * @param fontName フォント名
+     * @param wr 出力先
+     * @throws IOException
+     */
+    public static void profileChild(String fontName, Writer wr)
+            throws IOException {
+        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        measure(memoryBean, Font.DIALOG);
+
+        long[] measurement = measure(memoryBean, fontName);
+
+        Font font = new Font(fontName, Font.PLAIN, 1);
+        if (fontName.equals(font.getFontName())
+                || fontName.equals(font.getFamily())) {
+            wr.write(MEASUREMENT + "\t" + measurement[0] + "\t" + measurement[1]
+                    + "\t" + measurement[2] + "\n");
+        } else {
+            wr.write(ERROR + "\tfont not found\n");
+        }
+        wr.flush();
+    }
+
+    /**
+     * 指定した名前のフォントを読み込み、グリフを判定・描画して、
+     * その前後のメモリ使用量の差と所要時間を計測する.
+     *
+     * @return ヒープの増加量(バイト)、RSSの増加量(KB)、所要時間(ナノ秒)の配列
+     */
+    private static long[] measure(MemoryMXBean memoryBean, String fontName) {
+        // 前回までの不要なオブジェクトが確実に回収されるように2回要求する
+        memoryBean.gc();
+        memoryBean.gc();
+        long heapBefore = memoryBean.getHeapMemoryUsage().getUsed();
+        long rssBefore = readRss();
+        long start = System.nanoTime();
+
+        Font font = new Font(fontName, Font.PLAIN, 1).deriveFont(RENDER_SIZE);
+        FontCoverage.probe(font);
+
+        BufferedImage img = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = img.createGraphics();
+        try {
+            FontRenderContext frc = g.getFontRenderContext();
+            GlyphVector gv = font.createGlyphVector(frc, PROBE_TEXT);
+            g.drawGlyphVector(gv, 0, RENDER_SIZE);
+        } finally {
+            g.dispose();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        memoryBean.gc();
+        long heapDelta = memoryBean.getHeapMemoryUsage().getUsed() - heapBefore;
+        long rssAfter = readRss();
+        long rssDelta = rssBefore < 0 || rssAfter < 0 ? -1 : rssAfter - rssBefore;
+        return new long[]{heapDelta, rssDelta, elapsed};
+    }
+
+    /**
+     * /proc/self/statusから常駐メモリ(VmRSS)をKB単位で読み取る.
+     *
+     * @return 常駐メモリ(KB)、Linux以外などで読み取れなければ-1
+     */
+    private static long readRss() {
+        File file = new File("/proc/self/status");
+        if (!file.exists()) {
+            return -1;
+        }
+        try (FileInputStream fis = new FileInputStream(file);
+                BufferedReader rd = new BufferedReader(
+                        new InputStreamReader(fis, UTF8))) {
+            String line;
+            while ((line = rd.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    String[] fields = line.substring(6).trim().split("\\s+");
+                    return Long.parseLong(fields[0]);
+                }
+            }
+
+        } catch (IOException | NumberFormatException ex) {
+            return -1;
+        }
+        return -1;
+    }
+
+    private synchronized void setMeasurement(int idx, long heapDelta,
+            long rssDelta, long nanos, boolean isolated) {
+        heapDeltas[idx] = heapDelta;
+        rssDeltas[idx] = rssDelta;
+        loadNanos[idx] = nanos;
+        this.isolated[idx] = isolated;
+        errors[idx] = null;
+        profiled[idx] = true;
+    }
+
+    private synchronized void setError(int idx, String error) {
+        isolated[idx] = true;
+        errors[idx] = error;
+        profiled[idx] = true;
+    }
+
+    public synchronized boolean isProfiled(int idx) {
+        return profiled[idx];
+    }
+
+    /**
+     * 子プロセスで計測したか判定する.
+     *
+     * @param idx フォントのインデックス
+     * @return 子プロセスで計測した場合はtrue、同じプロセス内での推定値であればfalse
+     */
+    public synchronized boolean isIsolated(int idx) {
+        return isolated[idx];
+    }
+
+    /**
+     * 計測エラーの内容を取得する.
+     *
+     * @param idx フォントのインデックス
+     * @return エラーの内容、エラーでなければnull
+     */
+    public synchronized String getError(int idx) {
+        return errors[idx];
+    }
+
+    public synchronized long getHeapDelta(int idx) {
+        return heapDeltas[idx];
+    }
+
+    public synchronized long getRssDelta(int idx) {
+        return rssDeltas[idx];
+    }
+
+    public synchronized long getLoadNanos(int idx) {
+        return loadNanos[idx];
+    }
+}
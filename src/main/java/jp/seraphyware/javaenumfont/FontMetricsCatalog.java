@@ -0,0 +1,249 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.LineMetrics;
+
+/**
+ * フォントごとのグリフメトリクスを計測して保持するカタログ.<br>
+ * フォント1つにつき、プローブ文字とサンプルテキストを連結した文字列で
+ * {@link Font#createGlyphVector(FontRenderContext, char[])}を1回だけ呼び出し、
+ * グリフ位置の配列から各文字の送り幅を求める.<br>
+ * 計測結果はフォントのインデックスごとにプリミティブ配列に格納する.<br>
+ * プローブ文字のグリフがフォントにない場合、その送り幅は欠落グリフ(.notdef)のものであるため、
+ * NaNとして格納する.<br>
+ * バックグラウンドで計測できるように、計測と計測済みの判定は同期化している.<br>
+ */
+final class FontMetricsCatalog {
+
+    /**
+     * 計測に用いるフォントサイズ(pt)
+     */
+    public static final float MEASURE_SIZE = 12f;
+
+    /**
+     * 半角のプローブ文字
+     */
+    private static final String HALF_WIDTH_PROBES = "0AWi";
+
+    /**
+     * 全角のプローブ文字
+     */
+    private static final String FULL_WIDTH_PROBES = "あ漢・";
+
+    /**
+     * 等幅判定の許容誤差(計測サイズに対する比率)
+     */
+    private static final float TOLERANCE = 0.01f;
+
+    /**
+     * 計測用のレンダリングコンテキスト(アンチエイリアス、小数メトリクス有効)
+     */
+    private final FontRenderContext frc = new FontRenderContext(null, true, true);
+
+    /**
+     * 対象フォント
+     */
+    private final Font[] fonts;
+
+    /**
+     * プローブ文字とサンプルテキストを連結した計測用の文字列
+     */
+    private final char[] text;
+
+    /**
+     * サンプルテキストの各行の開始位置と終了位置(textのインデックス)の組
+     */
+    private final int[] lineRanges;
+
+    /**
+     * プローブ文字ごとの送り幅 (フォント数 x プローブ文字数)、グリフがなければNaN
+     */
+    private final float[] advances;
+
+    private final float[] ascents;
+
+    private final float[] descents;
+
+    private final float[] leadings;
+
+    /**
+     * サンプルテキストの最大行幅
+     */
+    private final float[] sampleWidths;
+
+    /**
+     * 全角が半角の2倍幅となる等幅フォントであるか
+     */
+    private final boolean[] cjkMonospaced;
+
+    /**
+     * 計測済みであるか
+     */
+    private final boolean[] measured;
+
+    /**
+     * コンストラクタ
+     *
+     * @param fonts 対象フォント
+     * @param sample サンプルテキスト
+     */
+    public FontMetricsCatalog(Font[] fonts, String sample) {
+        this.fonts = fonts;
+
+        String probes = HALF_WIDTH_PROBES + FULL_WIDTH_PROBES;
+        if (sample == null) {
+            sample = "";
+        }
+        this.text = (probes + sample).toCharArray();
+
+        // サンプルテキストの行範囲 (改行文字は含めない)
+        int[] ranges = new int[(sample.length() + 1) * 2];
+        int cnt = 0;
+        int start = probes.length();
+        for (int idx = start; idx <= text.length; idx++) {
+            if (idx == text.length || text[idx] == '\r' || text[idx] == '\n') {
+                if (idx > start) {
+                    ranges[cnt++] = start;
+                    ranges[cnt++] = idx;
+                }
+                start = idx + 1;
+            }
+        }
+        this.lineRanges = new int[cnt];
+        System.arraycopy(ranges, 0, lineRanges, 0, cnt);
+
+        int len = fonts.length;
+        this.advances = new float[len * probes.length()];
+        this.ascents = new float[len];
+        this.descents = new float[len];
+        this.leadings = new float[len];
+        this.sampleWidths = new float[len];
+        this.cjkMonospaced = new boolean[len];
+        this.measured = new boolean[len];
+    }
+
+    /**
+     * 指定したインデックスのフォントを計測する.<br>
+     * すでに計測済みであれば何もしない.<br>
+     *
+     * @param idx フォントのインデックス
+     */
+    public synchronized void measure(int idx) {
+        if (measured[idx]) {
+            return;
+        }
+        Font font = fonts[idx].deriveFont(MEASURE_SIZE);
+
+        // createGlyphVectorはシェーピングを行わないため、文字とグリフは1対1に対応する
+        GlyphVector gv = font.createGlyphVector(frc, text);
+        int numGlyphs = gv.getNumGlyphs();
+
+        // すべてのグリフ位置を一括で取得する (終端位置を含む)
+        float[] positions = gv.getGlyphPositions(0, numGlyphs + 1, null);
+        int missingCode = font.getMissingGlyphCode();
+
+        int numProbes = HALF_WIDTH_PROBES.length() + FULL_WIDTH_PROBES.length();
+        int offset = idx * numProbes;
+        boolean missing = false;
+        for (int i = 0; i < numProbes; i++) {
+            if (gv.getGlyphCode(i) == missingCode) {
+                advances[offset + i] = Float.NaN;
+                missing = true;
+            } else {
+                advances[offset + i] = positions[(i + 1) * 2] - positions[i * 2];
+            }
+        }
+
+        float sampleWidth = 0;
+        for (int i = 0; i < lineRanges.length; i += 2) {
+            float width = positions[lineRanges[i + 1] * 2]
+                    - positions[lineRanges[i] * 2];
+            sampleWidth = Math.max(sampleWidth, width);
+        }
+        sampleWidths[idx] = sampleWidth;
+
+        LineMetrics lm = font.getLineMetrics(text, 0, text.length, frc);
+        ascents[idx] = lm.getAscent();
+        descents[idx] = lm.getDescent();
+        leadings[idx] = lm.getLeading();
+
+        cjkMonospaced[idx] = !missing && checkCJKMonospaced(offset);
+        measured[idx] = true;
+    }
+
+    /**
+     * 半角のプローブ文字がすべて同じ幅であり、全角のプローブ文字がすべて
+     * その2倍の幅であるか判定する.
+     *
+     * @param offset 送り幅配列のオフセット
+     * @return 全角・半角の等幅フォントであればtrue
+     */
+    private boolean checkCJKMonospaced(int offset) {
+        float tolerance = MEASURE_SIZE * TOLERANCE;
+        int numHalf = HALF_WIDTH_PROBES.length();
+        int numFull = FULL_WIDTH_PROBES.length();
+        float half = advances[offset];
+        if (half <= 0) {
+            return false;
+        }
+        for (int i = 1; i < numHalf; i++) {
+            if (Math.abs(advances[offset + i] - half) > tolerance) {
+                return false;
+            }
+        }
+        for (int i = 0; i < numFull; i++) {
+            if (Math.abs(advances[offset + numHalf + i] - half * 2) > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized boolean isMeasured(int idx) {
+        return measured[idx];
+    }
+
+    public float getAscent(int idx) {
+        return ascents[idx];
+    }
+
+    public float getDescent(int idx) {
+        return descents[idx];
+    }
+
+    public float getLeading(int idx) {
+        return leadings[idx];
+    }
+
+    /**
+     * 半角文字(最初の半角プローブ文字)の送り幅を取得する.
+     *
+     * @param idx フォントのインデックス
+     * @return 送り幅、グリフがなければNaN
+     */
+    public float getHalfWidth(int idx) {
+        int numProbes = HALF_WIDTH_PROBES.length() + FULL_WIDTH_PROBES.length();
+        return advances[idx * numProbes];
+    }
+
+    /**
+     * 全角文字(最初の全角プローブ文字)の送り幅を取得する.
+     *
+     * @param idx フォントのインデックス
+     * @return 送り幅、グリフがなければNaN
+     */
+    public float getFullWidth(int idx) {
+        int numProbes = HALF_WIDTH_PROBES.length() + FULL_WIDTH_PROBES.length();
+        return advances[idx * numProbes + HALF_WIDTH_PROBES.length()];
+    }
+
+    public float getSampleWidth(int idx) {
+        return sampleWidths[idx];
+    }
+
+    public boolean isCJKMonospaced(int idx) {
+        return cjkMonospaced[idx];
+    }
+}
@@ -0,0 +1,565 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.JTable;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import javax.swing.event.RowSorterEvent;
+import javax.swing.event.RowSorterListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
+
+/**
+ * フォントごとの判定・計測処理を、フォント一覧のテーブルの表示状態に応じた優先順位で
+ * バックグラウンドで実行する.<br>
+ * 選択行、表示中の行、その前後1画面分の行の順に処理し、残りの行は
+ * スクロールなどの操作が一定時間なかったときにフォントの並び順で処理する.<br>
+ * テーブルに{@link FontRowModel}を実装したモデルが設定されている場合は、
+ * その行に対応するフォントを優先して処理する.<br>
+ * 表示範囲が変わったときに、処理中のフォントが優先対象から外れた場合は、
+ * そのフォントの残りの処理を中断して後回しにする.<br>
+ * 処理が完了した行は、イベントディスパッチスレッドで行の更新を通知する.<br>
+ * 表示中の行の処理がはじめてすべて完了したときは、設定された処理を1回だけ実行する.<br>
+ */
+final class FontWorkScheduler {
+
+    /**
+     * 優先対象でない行の処理を開始するまでの、最後の操作からの待ち時間(ミリ秒)
+     */
+    private static final long IDLE_DELAY = 300;
+
+    /**
+     * フォントごとの処理
+     */
+    public interface Task {
+
+        /**
+         * 処理済みであるか判定する.
+         *
+         * @param idx フォントのインデックス
+         * @return 処理済みであればtrue
+         */
+        boolean isDone(int idx);
+
+        /**
+         * 処理を実行する.<br>
+         * バックグラウンドのスレッドから呼び出される.<br>
+         *
+         * @param idx フォントのインデックス
+         */
+        void run(int idx);
+    }
+
+    /**
+     * 行ごとに対応するフォントのインデックスを返すテーブルモデル.<br>
+     * ファミリーごとの表示など、行とフォントが1対1に対応しないモデルで実装する.<br>
+     */
+    public interface FontRowModel {
+
+        /**
+         * 指定した行に対応するフォントのインデックスを取得する.
+         *
+         * @param row モデルの行
+         * @return フォントのインデックス
+         */
+        int[] getFontIndices(int row);
+    }
+
+    private final JTable table;
+
+    private final DefaultTableModel model;
+
+    private final Task[] tasks;
+
+    /**
+     * すべての処理が完了したフォント
+     */
+    private final boolean[] done;
+
+    /**
+     * 優先して処理するフォントのインデックス (優先順)
+     */
+    private int[] urgent = new int[0];
+
+    /**
+     * 優先対象のうち、選択行と表示中の行に対応するフォントの数 (urgentの先頭から)
+     */
+    private int visibleCount;
+
+    /**
+     * 表示中の行の処理がはじめてすべて完了したときに実行する処理、実行済みならばnull
+     */
+    private Runnable visibleRowsDoneAction;
+
+    /**
+     * 優先順位を更新するごとに増える世代番号
+     */
+    private int generation;
+
+    /**
+     * 最後に優先順位を更新した時刻
+     */
+    private long lastChanged;
+
+    /**
+     * 優先対象でない行を探す開始位置
+     */
+    private int idleCursor;
+
+    /**
+     * 一時停止中であるか
+     */
+    private boolean paused;
+
+    /**
+     * 処理中のフォントの数 (ワーカーと{@link #completeAll()}の呼び出し元の合計)
+     */
+    private int running;
+
+    /**
+     * 作成したワーカー
+     */
+    private SwingWorker<Void, Integer> worker;
+
+    /**
+     * コンストラクタ
+     *
+     * @param table フォント一覧のテーブル
+     * @param model フォント一覧のテーブルモデル (行がフォントのインデックスに対応するもの)
+     * @param tasks フォントごとの処理
+     */
+    public FontWorkScheduler(JTable table, DefaultTableModel model,
+            Task... tasks) {
+        this.table = table;
+        this.model = model;
+        this.tasks = tasks;
+        this.done = new boolean[model.getRowCount()];
+    }
+
+    /**
+     * 表示中の行の処理がはじめてすべて完了したときに、
+     * イベントディスパッチスレッドで1回だけ実行する処理を設定する.<br>
+     * 処理結果に合わせてカラム幅を調整する場合などに用いる.<br>
+     *
+     * @param action 処理
+     */
+    public synchronized void setVisibleRowsDoneAction(Runnable action) {
+        this.visibleRowsDoneAction = action;
+    }
+
+    /**
+     * テーブルの表示範囲、選択行、並び順、モデルの変更を監視して、
+     * 優先順位を更新するようにする.<br>
+     * テーブルがスクロールペインに配置されてから呼び出すこと.<br>
+     */
+    public void install() {
+        if (table.getParent() instanceof JViewport) {
+            ((JViewport) table.getParent()).addChangeListener(
+                    new ChangeListener() {
+                        @Override
+                        public void stateChanged(ChangeEvent e) {
+                            reprioritize();
+                        }
+                    });
+        }
+        table.getSelectionModel().addListSelectionListener(
+                new ListSelectionListener() {
+                    @Override
+                    public void valueChanged(ListSelectionEvent e) {
+                        reprioritize();
+                    }
+                });
+        // ファミリーの展開などで行が増減した場合も優先順位を更新する
+        final TableModelListener modelListener = new TableModelListener() {
+            @Override
+            public void tableChanged(TableModelEvent e) {
+                if (e.getType() != TableModelEvent.UPDATE) {
+                    reprioritize();
+                }
+            }
+        };
+        table.getModel().addTableModelListener(modelListener);
+        final RowSorterListener sorterListener = new RowSorterListener() {
+            @Override
+            public void sorterChanged(RowSorterEvent e) {
+                reprioritize();
+            }
+        };
+        if (table.getRowSorter() != null) {
+            table.getRowSorter().addRowSorterListener(sorterListener);
+        }
+        table.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                String name = evt.getPropertyName();
+                if ("rowSorter".equals(name) && table.getRowSorter() != null) {
+                    table.getRowSorter().addRowSorterListener(sorterListener);
+                }
+                if ("model".equals(name)) {
+                    ((TableModel) evt.getOldValue())
+                            .removeTableModelListener(modelListener);
+                    table.getModel().addTableModelListener(modelListener);
+                }
+                if ("rowSorter".equals(name) || "model".equals(name)) {
+                    reprioritize();
+                }
+            }
+        });
+        reprioritize();
+    }
+
+    /**
+     * バックグラウンドで処理を実行するワーカーを作成する.<br>
+     * すべてのフォントの処理が完了するか、キャンセルされると終了する.<br>
+     *
+     * @return ワーカー
+     */
+    public SwingWorker<Void, Integer> createWorker() {
+        worker = new SwingWorker<Void, Integer>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                for (;;) {
+                    int idx;
+                    int gen;
+                    boolean visibleRowsDone = false;
+                    synchronized (FontWorkScheduler.this) {
+                        idx = next();
+                        gen = generation;
+                    }
+                    if (idx < 0) {
+                        return null;
+                    }
+                    try {
+                        if (runTasks(idx, gen)) {
+                            synchronized (FontWorkScheduler.this) {
+                                done[idx] = true;
+                                visibleRowsDone = isVisibleRowsDone();
+                            }
+                        }
+                    } finally {
+                        synchronized (FontWorkScheduler.this) {
+                            running--;
+                            FontWorkScheduler.this.notifyAll();
+                        }
+                    }
+                    publish(idx);
+                    if (visibleRowsDone) {
+                        publish(-1);
+                    }
+                }
+            }
+
+            @Override
+            protected void process(List<Integer> chunks) {
+                for (int idx : chunks) {
+                    if (idx >= 0) {
+                        model.fireTableRowsUpdated(idx, idx);
+                    }
+                }
+                // 行の更新を通知した後に実行する
+                if (chunks.contains(-1)) {
+                    Runnable action;
+                    synchronized (FontWorkScheduler.this) {
+                        action = visibleRowsDoneAction;
+                        visibleRowsDoneAction = null;
+                    }
+                    if (action != null) {
+                        action.run();
+                    }
+                }
+            }
+        };
+        return worker;
+    }
+
+    /**
+     * 作成したワーカーを取得する.
+     *
+     * @return ワーカー、作成していなければnull
+     */
+    public SwingWorker<Void, Integer> getWorker() {
+        return worker;
+    }
+
+    /**
+     * 処理を一時停止する.<br>
+     * 処理中のフォントがあれば、その処理が終わるまで待機する.<br>
+     * メモリ使用量の計測など、ほかの処理の影響を避けたい場合に用いる.<br>
+     *
+     * @throws InterruptedException 中断された場合
+     */
+    public synchronized void pause() throws InterruptedException {
+        paused = true;
+        while (running > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * 一時停止した処理を再開する.
+     */
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    /**
+     * 未完了のすべてのフォントの処理を、呼び出したスレッドで実行する.<br>
+     * ファイルへの保存など、すべての結果が必要な場合にバックグラウンドのスレッドから用いる.<br>
+     * 一時停止中は再開されるまで待機する.<br>
+     * 処理したフォントは処理済みとし、最後にイベントディスパッチスレッドで行の更新を通知する.<br>
+     *
+     * @throws InterruptedException 中断された場合
+     */
+    public void completeAll() throws InterruptedException {
+        int first = -1;
+        int last = -1;
+        try {
+            // ワーカーは先頭から処理するため、同じフォントで競合しないように末尾から処理する
+            for (int idx = done.length - 1; idx >= 0; idx--) {
+                synchronized (this) {
+                    while (paused) {
+                        wait();
+                    }
+                    if (done[idx]) {
+                        continue;
+                    }
+                    running++;
+                }
+                try {
+                    for (Task task : tasks) {
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+                        if (!task.isDone(idx)) {
+                            task.run(idx);
+                        }
+                    }
+                    synchronized (this) {
+                        done[idx] = true;
+                    }
+                } finally {
+                    synchronized (this) {
+                        running--;
+                        notifyAll();
+                    }
+                }
+                if (last < 0) {
+                    last = idx;
+                }
+                first = idx;
+            }
+
+        } finally {
+            if (first >= 0) {
+                final int firstRow = first;
+                final int lastRow = last;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        model.fireTableRowsUpdated(firstRow, lastRow);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * 表示中の行の処理を完了したときの処理が未実行で、
+     * 選択行と表示中の行がすべて処理済みであるか判定する.
+     */
+    private synchronized boolean isVisibleRowsDone() {
+        if (visibleRowsDoneAction == null || visibleCount == 0) {
+            return false;
+        }
+        for (int cnt = 0; cnt < visibleCount; cnt++) {
+            if (!done[urgent[cnt]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 1つのフォントの処理を順に実行する.<br>
+     * 処理の合間に優先順位が変わり、このフォントが優先対象から外れた場合は中断する.<br>
+     *
+     * @return すべての処理が完了した場合はtrue
+     */
+    private boolean runTasks(int idx, int gen) throws InterruptedException {
+        for (Task task : tasks) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (isSuperseded(idx, gen)) {
+                return false;
+            }
+            if (!task.isDone(idx)) {
+                task.run(idx);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 優先対象として処理を開始したフォントが、その後の優先順位の更新で
+     * 優先対象から外れたか判定する.
+     */
+    private synchronized boolean isSuperseded(int idx, int gen) {
+        if (gen == generation) {
+            return false;
+        }
+        for (int urgentIdx : urgent) {
+            if (urgentIdx == idx) {
+                return false;
+            }
+        }
+        return urgent.length > 0;
+    }
+
+    /**
+     * 次に処理するフォントを取得する.<br>
+     * 優先対象がなく、最後の操作から間もない場合は、待ち時間が経過するまで待機する.<br>
+     * 一時停止中は再開されるまで待機する.<br>
+     *
+     * @return フォントのインデックス、すべて完了していれば-1
+     */
+    private synchronized int next() throws InterruptedException {
+        int idx = findNext();
+        if (idx >= 0) {
+            running++;
+        }
+        return idx;
+    }
+
+    private synchronized int findNext() throws InterruptedException {
+        for (;;) {
+            if (paused) {
+                wait();
+                continue;
+            }
+            for (int idx : urgent) {
+                if (!done[idx]) {
+                    return idx;
+                }
+            }
+            long wait = lastChanged + IDLE_DELAY - System.currentTimeMillis();
+            if (wait > 0) {
+                wait(wait);
+                continue;
+            }
+            while (idleCursor < done.length && done[idleCursor]) {
+                idleCursor++;
+            }
+            if (idleCursor < done.length) {
+                return idleCursor;
+            }
+            // 中断したフォントが残っていれば先頭から探し直す
+            for (int idx = 0; idx < done.length; idx++) {
+                if (!done[idx]) {
+                    return idx;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * テーブルの表示状態から優先して処理するフォントを求める.<br>
+     * イベントディスパッチスレッドから呼び出される.<br>
+     */
+    private void reprioritize() {
+        Rows rows = new Rows();
+        int visibleRows = 0;
+        int rowCount = table.getRowCount();
+        Rectangle visible = table.getVisibleRect();
+        if ((table.getModel() == model
+                || table.getModel() instanceof FontRowModel)
+                && rowCount > 0 && !visible.isEmpty()) {
+            // 表示中の行の範囲
+            int first = table.rowAtPoint(visible.getLocation());
+            int last = table.rowAtPoint(new Point(visible.x,
+                    visible.y + visible.height - 1));
+            if (first < 0) {
+                first = 0;
+            }
+            if (last < 0) {
+                last = rowCount - 1;
+            }
+            int page = last - first + 1;
+
+            int selected = table.getSelectedRow();
+            if (selected >= 0) {
+                rows.addRow(selected);
+            }
+            for (int vRow = first; vRow <= last; vRow++) {
+                rows.addRow(vRow);
+            }
+            visibleRows = rows.size;
+            // 前後の行は表示範囲に近いものから交互に先読みする
+            for (int dist = 1; dist <= page; dist++) {
+                if (last + dist < rowCount) {
+                    rows.addRow(last + dist);
+                }
+                if (first - dist >= 0) {
+                    rows.addRow(first - dist);
+                }
+            }
+        }
+
+        synchronized (this) {
+            urgent = Arrays.copyOf(rows.indices, rows.size);
+            visibleCount = visibleRows;
+            generation++;
+            lastChanged = System.currentTimeMillis();
+            notifyAll();
+        }
+    }
+
+    /**
+     * 優先して処理するフォントのインデックスを、テーブルの行から集める.
+     */
+    private final class Rows {
+
+        int[] indices = new int[64];
+
+        int size;
+
+        /**
+         * 表示上の行に対応するフォントを追加する.
+         *
+         * @param vRow 表示上の行
+         */
+        void addRow(int vRow) {
+            int mRow = table.convertRowIndexToModel(vRow);
+            TableModel tableModel = table.getModel();
+            if (tableModel instanceof FontRowModel) {
+                for (int idx : ((FontRowModel) tableModel).getFontIndices(mRow)) {
+                    add(idx);
+                }
+            } else {
+                add(mRow);
+            }
+        }
+
+        private void add(int idx) {
+            if (size == indices.length) {
+                indices = Arrays.copyOf(indices, size * 2);
+            }
+            indices[size++] = idx;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.Font;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * フォントごとに、コードポイント単位で表示可能であるかの判定結果をキャッシュする.<br>
+ * 判定はサイズに依存しないため、フォント名ごとに1つのキャッシュを共有する.<br>
+ */
+final class GlyphCoverageCache {
+
+    /**
+     * フォント名ごとのキャッシュ
+     */
+    private static final Map<String, GlyphCoverageCache> caches = new HashMap<>();
+
+    private final Font font;
+
+    /**
+     * 判定済みのコードポイント
+     */
+    private final BitSet checked = new BitSet();
+
+    /**
+     * 表示可能なコードポイント
+     */
+    private final BitSet supported = new BitSet();
+
+    private GlyphCoverageCache(Font font) {
+        this.font = font;
+    }
+
+    /**
+     * 指定したフォントのキャッシュを取得する.
+     *
+     * @param font フォント
+     * @return キャッシュ
+     */
+    public static synchronized GlyphCoverageCache getInstance(Font font) {
+        String key = font.getFontName() + "/" + font.getStyle();
+        GlyphCoverageCache cache = caches.get(key);
+        if (cache == null) {
+            cache = new GlyphCoverageCache(font);
+            caches.put(key, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * コードポイントを表示可能であるか判定する.<br>
+     * 未判定であればフォントに問い合わせて結果を記録する.<br>
+     *
+     * @param codePoint コードポイント
+     * @return 表示可能であればtrue
+     */
+    public synchronized boolean canDisplay(int codePoint) {
+        if (!checked.get(codePoint)) {
+            checked.set(codePoint);
+            if (font.canDisplay(codePoint)) {
+                supported.set(codePoint);
+            }
+        }
+        return supported.get(codePoint);
+    }
+}
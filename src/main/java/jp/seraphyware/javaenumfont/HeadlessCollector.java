@@ -0,0 +1,101 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.Font;
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * 画面を表示せずにフォントの情報を収集し、1行1レコードのタブ区切りで出力する.<br>
+ * 構成マトリクスの実行時に、子プロセスのJVMから標準出力を通じて結果を返すために用いる.<br>
+ * レコードの種類は先頭のフィールドで示す.<br>
+ * <ul>
+ * <li>P キー 値 : 実行環境を示すシステムプロパティ</li>
+ * <li>F ファミリー名 フォント名 Posix名 グリフの判定結果 : フォント</li>
+ * <li>T ミリ秒 : 収集に要した時間 (最後のレコード)</li>
+ * </ul>
+ */
+final class HeadlessCollector {
+
+    public static final String PROPERTY = "P";
+
+    public static final String FONT = "F";
+
+    public static final String TIME = "T";
+
+    /**
+     * 出力するシステムプロパティの接頭語
+     */
+    private static final String[] PROPERTY_PREFIXES = {"java.version",
+        "java.vendor", "java.vm.", "java.runtime.", "os.", "file.encoding",
+        "sun.java2d.", "awt.", "sun.awt.", "java.awt."};
+
+    private HeadlessCollector() {
+        super();
+    }
+
+    /**
+     * 収集した結果を出力する.<br>
+     * 受け取る側が逐次処理できるように、レコードごとにフラッシュする.<br>
+     *
+     * @param wr 出力先
+     * @throws IOException
+     */
+    public static void collect(Writer wr) throws IOException {
+        long start = System.currentTimeMillis();
+
+        Properties prop = System.getProperties();
+        List<String> names = new ArrayList<>();
+        Enumeration<?> enm = prop.propertyNames();
+        while (enm.hasMoreElements()) {
+            String name = (String) enm.nextElement();
+            for (String prefix : PROPERTY_PREFIXES) {
+                if (name.startsWith(prefix)) {
+                    names.add(name);
+                    break;
+                }
+            }
+        }
+        Collections.sort(names);
+        for (String name : names) {
+            writeRecord(wr, PROPERTY, name, prop.getProperty(name));
+        }
+
+        Font[] fonts = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getAllFonts();
+        for (Font font : fonts) {
+            writeRecord(wr, FONT, font.getFamily(Locale.ENGLISH), font.getName(),
+                    font.getPSName(),
+                    FontCoverage.toString(FontCoverage.probe(font)));
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        writeRecord(wr, TIME, Long.toString(elapsed));
+    }
+
+    /**
+     * タブ区切りの1レコードを出力する.<br>
+     * 値に含まれるタブと改行は空白に置き換える.<br>
+     */
+    private static void writeRecord(Writer wr, String... fields)
+            throws IOException {
+        for (int idx = 0; idx < fields.length; idx++) {
+            if (idx > 0) {
+                wr.write('\t');
+            }
+            String field = fields[idx];
+            if (field != null) {
+                wr.write(field.replace('\t', ' ').replace('\r', ' ')
+                        .replace('\n', ' '));
+            }
+        }
+        wr.write('\n');
+        wr.flush();
+    }
+}
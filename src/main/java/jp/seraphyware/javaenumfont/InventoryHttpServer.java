@@ -0,0 +1,531 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.EventQueue;
+import java.awt.Font;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.TableModel;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * フォントやキャラクターセットなどの一覧をJSONとして返す、localhost限定のHTTPサーバ.<br>
+ * 各一覧のレスポンスはテーブルモデルが変更されるまで、JSONとgzip圧縮済みのバイト列、
+ * ETagを保持して再利用する.<br>
+ * 文字列ごとのカバレッジの問い合わせ結果は、フォントの配列と文字列だけで決まるため、
+ * 件数の上限までキャッシュする.<br>
+ */
+final class InventoryHttpServer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * カバレッジの問い合わせ結果をキャッシュする最大件数
+     */
+    private static final int MAX_COVERAGE_CACHE = 256;
+
+    /**
+     * カバレッジの問い合わせのパス
+     */
+    private static final String COVERAGE_PATH = "/coverage";
+
+    /**
+     * 事前にシリアライズされたレスポンス
+     */
+    private static final class Snapshot {
+
+        final byte[] body;
+
+        final byte[] gzipBody;
+
+        final String etag;
+
+        Snapshot(byte[] body) throws IOException {
+            this.body = body;
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (GZIPOutputStream gos = new GZIPOutputStream(bos)) {
+                gos.write(body);
+            }
+            this.gzipBody = bos.toByteArray();
+            this.etag = createETag(body);
+        }
+    }
+
+    /**
+     * パスごとのテーブルモデル
+     */
+    private final Map<String, TableModel> models;
+
+    private final Font[] fonts;
+
+    /**
+     * パスごとのスナップショット.<br>
+     * テーブルモデルが変更されたら該当パスのものを破棄する.<br>
+     */
+    private final ConcurrentHashMap<String, Snapshot> snapshots
+            = new ConcurrentHashMap<>();
+
+    /**
+     * パスごとの、シリアライズする前にリクエストのスレッドで実行する処理
+     */
+    private final ConcurrentHashMap<String, Runnable> preparations
+            = new ConcurrentHashMap<>();
+
+    /**
+     * パスごとのテーブルモデルの変更回数.<br>
+     * シリアライズ中に変更された場合に、古いスナップショットを保持しないようにする.<br>
+     * snapshotsとともに、versionsを同期オブジェクトとして更新する.<br>
+     */
+    private final Map<String, Long> versions = new HashMap<>();
+
+    /**
+     * カバレッジの問い合わせ文字列ごとのスナップショット(LRU)
+     */
+    private final Map<String, Snapshot> coverageCache
+            = new LinkedHashMap<String, Snapshot>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Snapshot> eldest) {
+            return size() > MAX_COVERAGE_CACHE;
+        }
+    };
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    /**
+     * コンストラクタ
+     *
+     * @param port ポート番号、0ならば空きポート
+     * @param models パスとテーブルモデルの組
+     * @param fonts カバレッジの問い合わせ対象のフォント
+     * @throws IOException ソケットをバインドできない場合
+     */
+    public InventoryHttpServer(int port, Map<String, TableModel> models,
+            Font[] fonts) throws IOException {
+        this.models = new LinkedHashMap<>(models);
+        this.fonts = fonts;
+
+        for (final Map.Entry<String, TableModel> entry : this.models.entrySet()) {
+            entry.getValue().addTableModelListener(new TableModelListener() {
+                @Override
+                public void tableChanged(TableModelEvent e) {
+                    synchronized (versions) {
+                        Long version = versions.get(entry.getKey());
+                        versions.put(entry.getKey(),
+                                version == null ? 1L : version + 1);
+                        snapshots.remove(entry.getKey());
+                    }
+                }
+            });
+        }
+
+        server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    handleRequest(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+
+        executor = Executors.newFixedThreadPool(4, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "InventoryHttpServer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    /**
+     * 一覧をシリアライズする前に、リクエストのスレッドで実行する処理を登録する.<br>
+     * バックグラウンドで処理中の結果をすべて揃えてから応答する場合などに用いる.<br>
+     *
+     * @param path 一覧のパス
+     * @param preparation 処理
+     */
+    public void addPreparation(String path, Runnable preparation) {
+        preparations.put(path, preparation);
+    }
+
+    /**
+     * サーバを開始する.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * サーバを停止する.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * バインドされたアドレスを取得する.
+     *
+     * @return アドレス
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * リクエストを処理する.
+     *
+     * @param exchange
+     * @throws IOException
+     */
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            sendError(exchange, 405, "Method Not Allowed");
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        Snapshot snapshot;
+        if (COVERAGE_PATH.equals(path)) {
+            String text = getQueryParameter(exchange.getRequestURI().getRawQuery(),
+                    "text");
+            if (text == null || text.isEmpty()) {
+                sendError(exchange, 400, "text parameter is required");
+                return;
+            }
+            snapshot = getCoverageSnapshot(text);
+
+        } else if (models.containsKey(path)) {
+            snapshot = getSnapshot(path);
+
+        } else if ("/".equals(path)) {
+            snapshot = getIndexSnapshot();
+
+        } else {
+            sendError(exchange, 404, "Not Found");
+            return;
+        }
+
+        send(exchange, snapshot, "HEAD".equals(method));
+    }
+
+    /**
+     * スナップショットをレスポンスとして送信する.<br>
+     * If-None-Matchが一致すれば304を返し、gzipを受け付けるならば圧縮済みのものを返す.<br>
+     */
+    private void send(HttpExchange exchange, Snapshot snapshot, boolean headOnly)
+            throws IOException {
+        Headers reqHeaders = exchange.getRequestHeaders();
+        Headers resHeaders = exchange.getResponseHeaders();
+        resHeaders.set("ETag", snapshot.etag);
+        resHeaders.set("Cache-Control", "no-cache");
+        resHeaders.set("Vary", "Accept-Encoding");
+
+        String ifNoneMatch = reqHeaders.getFirst("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.contains(snapshot.etag)) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        byte[] body = snapshot.body;
+        String acceptEncoding = reqHeaders.getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            body = snapshot.gzipBody;
+            resHeaders.set("Content-Encoding", "gzip");
+        }
+        resHeaders.set("Content-Type", "application/json; charset=UTF-8");
+
+        if (headOnly) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message)
+            throws IOException {
+        byte[] body = ("{\"error\":" + quote(message) + "}").getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type",
+                "application/json; charset=UTF-8");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    /**
+     * 一覧のパスのスナップショットを取得する.<br>
+     * 無効化されていれば、登録された準備の処理を実行してから、
+     * テーブルモデルからシリアライズし直す.<br>
+     * シリアライズした後にテーブルモデルが変更されていれば、
+     * 今回の応答には用いるが、スナップショットとしては保持しない.<br>
+     */
+    private Snapshot getSnapshot(final String path) throws IOException {
+        Snapshot snapshot = snapshots.get(path);
+        if (snapshot == null) {
+            Runnable preparation = preparations.get(path);
+            if (preparation != null) {
+                preparation.run();
+            }
+            final TableModel model = models.get(path);
+            final StringBuilder buf = new StringBuilder();
+            final long[] version = new long[1];
+            runOnEventQueue(new Runnable() {
+                @Override
+                public void run() {
+                    version[0] = getVersion(path);
+                    writeTableModel(buf, model);
+                }
+            });
+            snapshot = new Snapshot(buf.toString().getBytes(UTF8));
+            synchronized (versions) {
+                if (getVersion(path) == version[0]) {
+                    Snapshot prev = snapshots.putIfAbsent(path, snapshot);
+                    if (prev != null) {
+                        snapshot = prev;
+                    }
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * パスのテーブルモデルの変更回数を取得する.
+     */
+    private long getVersion(String path) {
+        synchronized (versions) {
+            Long version = versions.get(path);
+            return version == null ? 0 : version;
+        }
+    }
+
+    /**
+     * 利用可能なパスの一覧のスナップショットを取得する.
+     */
+    private Snapshot getIndexSnapshot() throws IOException {
+        Snapshot snapshot = snapshots.get("/");
+        if (snapshot == null) {
+            StringBuilder buf = new StringBuilder("[");
+            for (String path : models.keySet()) {
+                buf.append(quote(path)).append(',');
+            }
+            buf.append(quote(COVERAGE_PATH + "?text=")).append(']');
+            snapshot = new Snapshot(buf.toString().getBytes(UTF8));
+            snapshots.put("/", snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 指定した文字列に対するフォントごとのカバレッジのスナップショットを取得する.
+     */
+    private Snapshot getCoverageSnapshot(String text) throws IOException {
+        synchronized (coverageCache) {
+            Snapshot snapshot = coverageCache.get(text);
+            if (snapshot != null) {
+                return snapshot;
+            }
+        }
+
+        StringBuilder buf = new StringBuilder("[");
+        for (int idx = 0; idx < fonts.length; idx++) {
+            Font font = fonts[idx];
+            if (idx > 0) {
+                buf.append(',');
+            }
+            buf.append("{\"family\":").append(quote(font.getFamily(Locale.ENGLISH)));
+            buf.append(",\"name\":").append(quote(font.getName()));
+
+            StringBuilder missing = new StringBuilder();
+            int pos = 0;
+            while (pos < text.length()) {
+                int cp = text.codePointAt(pos);
+                if (!font.canDisplay(cp)) {
+                    if (missing.length() > 0) {
+                        missing.append(',');
+                    }
+                    missing.append(quote(String.format("U+%04X", cp)));
+                }
+                pos += Character.charCount(cp);
+            }
+            buf.append(",\"canDisplay\":").append(missing.length() == 0);
+            buf.append(",\"missing\":[").append(missing).append("]}");
+        }
+        buf.append(']');
+
+        Snapshot snapshot = new Snapshot(buf.toString().getBytes(UTF8));
+        synchronized (coverageCache) {
+            coverageCache.put(text, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * テーブルモデルの各行をカラム名をキーとするJSONオブジェクトの配列として書き込む.
+     */
+    private static void writeTableModel(StringBuilder buf, TableModel model) {
+        int rowmx = model.getRowCount();
+        int colmx = model.getColumnCount();
+        buf.append('[');
+        for (int row = 0; row < rowmx; row++) {
+            if (row > 0) {
+                buf.append(',');
+            }
+            buf.append('{');
+            for (int col = 0; col < colmx; col++) {
+                if (col > 0) {
+                    buf.append(',');
+                }
+                buf.append(quote(model.getColumnName(col))).append(':');
+                Object val = model.getValueAt(row, col);
+                if (val == null) {
+                    buf.append("null");
+                } else if (val instanceof Number || val instanceof Boolean) {
+                    buf.append(val);
+                } else {
+                    buf.append(quote(val.toString()));
+                }
+            }
+            buf.append('}');
+        }
+        buf.append(']');
+    }
+
+    /**
+     * イベントディスパッチスレッド上で実行する.<br>
+     * テーブルモデルはSwingのスレッドから参照する必要があるため.<br>
+     */
+    private static void runOnEventQueue(Runnable runnable) throws IOException {
+        if (EventQueue.isDispatchThread()) {
+            runnable.run();
+            return;
+        }
+        try {
+            EventQueue.invokeAndWait(runnable);
+
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+
+        } catch (InvocationTargetException ex) {
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * クエリ文字列から指定したパラメータの値を取得する.
+     */
+    private static String getQueryParameter(String rawQuery, String name)
+            throws UnsupportedEncodingException {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int pos = pair.indexOf('=');
+            String key = pos < 0 ? pair : pair.substring(0, pos);
+            if (name.equals(URLDecoder.decode(key, "UTF-8"))) {
+                return pos < 0 ? "" : URLDecoder.decode(pair.substring(pos + 1),
+                        "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * JSONの文字列リテラルとしてクオートする.
+     */
+    static String quote(String value) {
+        StringBuilder buf = new StringBuilder(value.length() + 2);
+        buf.append('"');
+        for (int idx = 0; idx < value.length(); idx++) {
+            char c = value.charAt(idx);
+            switch (c) {
+                case '"':
+                    buf.append("\\\"");
+                    break;
+                case '\\':
+                    buf.append("\\\\");
+                    break;
+                case '\n':
+                    buf.append("\\n");
+                    break;
+                case '\r':
+                    buf.append("\\r");
+                    break;
+                case '\t':
+                    buf.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        buf.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        buf.append(c);
+                    }
+            }
+        }
+        buf.append('"');
+        return buf.toString();
+    }
+
+    /**
+     * 内容のハッシュからETagを作成する.
+     */
+    private static String createETag(byte[] body) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(body);
+            StringBuilder buf = new StringBuilder("\"");
+            for (int idx = 0; idx < 8; idx++) {
+                buf.append(String.format("%02x", digest[idx] & 0xff));
+            }
+            buf.append('"');
+            return buf.toString();
+
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -8,9 +8,14 @@ import java.awt.Font;
 import java.awt.GraphicsEnvironment;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -25,12 +30,21 @@ import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -50,12 +64,12 @@ import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
 import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.UIManager;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
-import javax.swing.plaf.FontUIResource;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumn;
@@ -67,6 +81,22 @@ import javax.swing.table.TableModel;
  */
 public class JavaEnumFont extends JFrame {
 
+    /**
+     * 実行中のバックグラウンドジョブ.<br>
+     * 終了時にキャンセルする.<br>
+     */
+    private final List<SwingWorker<?, ?>> backgroundJobs = new ArrayList<>();
+
+    /**
+     * 一覧をJSONで返すHTTPサーバ、起動していなければnull
+     */
+    private InventoryHttpServer httpServer;
+
+    /**
+     * フォント一覧のUI Defaultのカラムに表示するデフォルトフォントの対応表
+     */
+    private UIDefaultFonts uiDefaultFonts;
+
     /**
      * コンストラクタ
      */
@@ -102,13 +132,25 @@ public class JavaEnumFont extends JFrame {
         Font[] fonts = GraphicsEnvironment.getLocalGraphicsEnvironment()
                 .getAllFonts();
 
-        final TableModel fontsTableModel = createFontsTableModel(fonts);
+        String sample = loadText();
+
+        // フォントごとの判定・計測はフォント一覧の表示に合わせてバックグラウンドで行う
+        final FontCoverageCatalog coverage = new FontCoverageCatalog(fonts);
+        final FontMetricsCatalog metrics = new FontMetricsCatalog(fonts, sample);
+        final SequenceCoverage sequences = new SequenceCoverage(fonts);
+
+        FontMemoryProfiler profiler = new FontMemoryProfiler(fonts);
+
+        final TableModel fontsTableModel = createFontsTableModel(fonts, coverage,
+                metrics, profiler, sequences);
         final TableModel charsetsTableModel = createCharsetTableModel();
         final TableModel sysPropTableModel = createSysPropTableModel();
         final TableModel envTableModel = createEnvTableModel();
 
         final ExportablePanel[] panels = {
-            createFontsPanel(fonts, fontsTableModel),
+            createFontsPanel(fonts, sample, fontsTableModel, coverage),
+            createDuplicatesPanel(fonts),
+            createLookAndFeelFontsPanel(fontsTableModel),
             createCharsetPanel(charsetsTableModel),
             createSysPropPanel(sysPropTableModel),
             createEnvPanel(envTableModel)
@@ -121,6 +163,10 @@ public class JavaEnumFont extends JFrame {
 
         contentPane.add(tabPanel, BorderLayout.CENTER);
 
+        final FontWorkScheduler scheduler = startFontWorkScheduler(
+                panels[0].getTable(), fontsTableModel, coverage, metrics,
+                sequences);
+
         Exportable exp = new Exportable() {
             @Override
             public void export(Writer wr) throws IOException {
@@ -130,7 +176,123 @@ public class JavaEnumFont extends JFrame {
             }
         };
 
-        setJMenuBar(createMenuBar(exp));
+        setJMenuBar(createMenuBar(exp, profiler, scheduler, fontsTableModel));
+
+        // システムプロパティでポートが指定されていればHTTPサーバを起動する
+        String httpPort = System.getProperty("javaenumfont.http.port");
+        if (httpPort != null) {
+            Map<String, TableModel> models = new LinkedHashMap<>();
+            models.put("/fonts", fontsTableModel);
+            models.put("/charsets", charsetsTableModel);
+            models.put("/sysprops", sysPropTableModel);
+            models.put("/env", envTableModel);
+            startHttpServer(Integer.parseInt(httpPort), models, fonts,
+                    scheduler);
+        }
+    }
+
+    /**
+     * フォント一覧の表示に合わせて、フォントごとの判定・計測をバックグラウンドで開始する.
+     *
+     * @param fontTable フォント一覧のテーブル
+     * @param fontsTableModel フォント一覧のテーブルモデル
+     * @param coverage フォントがもつグリフの判定
+     * @param metrics フォントのメトリクス
+     * @param sequences 絵文字などのシーケンスの判定
+     * @return スケジューラ
+     */
+    private FontWorkScheduler startFontWorkScheduler(final JTable fontTable,
+            TableModel fontsTableModel, final FontCoverageCatalog coverage,
+            final FontMetricsCatalog metrics, final SequenceCoverage sequences) {
+        FontWorkScheduler scheduler = new FontWorkScheduler(fontTable,
+                (DefaultTableModel) fontsTableModel,
+                new FontWorkScheduler.Task() {
+                    @Override
+                    public boolean isDone(int idx) {
+                        return coverage.isProbed(idx);
+                    }
+
+                    @Override
+                    public void run(int idx) {
+                        coverage.getMask(idx);
+                    }
+                },
+                new FontWorkScheduler.Task() {
+                    @Override
+                    public boolean isDone(int idx) {
+                        return metrics.isMeasured(idx);
+                    }
+
+                    @Override
+                    public void run(int idx) {
+                        metrics.measure(idx);
+                    }
+                },
+                new FontWorkScheduler.Task() {
+                    @Override
+                    public boolean isDone(int idx) {
+                        return sequences.isChecked(idx);
+                    }
+
+                    @Override
+                    public void run(int idx) {
+                        sequences.getMask(idx);
+                    }
+                });
+        scheduler.install();
+
+        // 起動直後は結果が空欄のため、表示中の行が揃ったらカラム幅を調整し直す
+        scheduler.setVisibleRowsDoneAction(new Runnable() {
+            @Override
+            public void run() {
+                adjustColumns(fontTable);
+            }
+        });
+
+        final SwingWorker<Void, Integer> worker = scheduler.createWorker();
+        worker.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if (worker.isDone()) {
+                    backgroundJobs.remove(worker);
+                }
+            }
+        });
+        backgroundJobs.add(worker);
+        worker.execute();
+        return scheduler;
+    }
+
+    /**
+     * 一覧をJSONで返すHTTPサーバをlocalhostで起動する.
+     *
+     * @param port ポート番号
+     * @param models パスとテーブルモデルの組
+     * @param fonts
+     * @param scheduler フォントごとの判定・計測のスケジューラ
+     */
+    private void startHttpServer(int port, Map<String, TableModel> models,
+            Font[] fonts, final FontWorkScheduler scheduler) {
+        try {
+            httpServer = new InventoryHttpServer(port, models, fonts);
+            // フォント一覧は、未処理のフォントをすべて処理してから返す
+            httpServer.addPreparation("/fonts", new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        scheduler.completeAll();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            httpServer.start();
+            Logger.getLogger(JavaEnumFont.class.getName()).log(Level.INFO,
+                    "http server={0}", httpServer.getAddress());
+
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, ex.toString());
+        }
     }
 
     /**
@@ -144,6 +306,16 @@ public class JavaEnumFont extends JFrame {
 
         public abstract String getTitle();
 
+        /**
+         * エクスポートするテーブルモデルを取得する.<br>
+         * 既定ではテーブルに表示中のモデルとする.<br>
+         *
+         * @return テーブルモデル
+         */
+        public TableModel getExportModel() {
+            return getTable().getModel();
+        }
+
         @Override
         public void export(Writer wr) throws IOException {
             wr.write("[");
@@ -152,12 +324,16 @@ public class JavaEnumFont extends JFrame {
             wr.write(newline);
 
             JTable table = getTable();
+            TableModel model = getExportModel();
 
-            int rowmx = table.getRowCount();
-            int colmx = table.getColumnCount();
+            // 表示中のモデルであれば表示順で、そうでなければモデルの順で出力する
+            boolean viewOrder = model == table.getModel();
+            int rowmx = viewOrder ? table.getRowCount() : model.getRowCount();
+            int colmx = viewOrder ? table.getColumnCount() : model.getColumnCount();
             for (int row = 0; row < rowmx; row++) {
                 for (int col = 0; col < colmx; col++) {
-                    Object val = table.getValueAt(row, col);
+                    Object val = viewOrder ? table.getValueAt(row, col)
+                            : model.getValueAt(row, col);
                     if (val == null) {
                         val = "";
                     }
@@ -185,45 +361,29 @@ public class JavaEnumFont extends JFrame {
     /**
      * フォント表示用テーブルモデルを作成して返す.
      *
+     * フォントごとの判定・計測の結果は、未処理であれば空欄とする.<br>
+     * すべての結果が必要な場合は、参照する前に{@link FontWorkScheduler#completeAll()}を呼び出すこと.<br>
+     *
      * @param fonts
+     * @param coverage フォントがもつグリフの判定
+     * @param metrics フォントのメトリクス
+     * @param profiler フォントのメモリ使用量
+     * @param sequences 絵文字などのシーケンスの判定
      * @return
      */
-    private TableModel createFontsTableModel(final Font[] fonts) {
-
-        final HashMap<String, String> defaultFamilies = new HashMap<>();
-        final HashMap<String, String> defaultNames = new HashMap<>();
-
-        Enumeration<Object> keys = UIManager.getDefaults().keys();
-        while (keys.hasMoreElements()) {
-            Object key = keys.nextElement();
-            Object value = UIManager.get(key);
-            if (value != null && value instanceof FontUIResource) {
-                FontUIResource fr = (FontUIResource) value;
-                String family = fr.getFamily(Locale.ENGLISH);
-                String name = fr.getName();
-
-                String keyName = key.toString();
-
-                String prevFamily = defaultFamilies.get(family);
-                if (prevFamily == null) {
-                    prevFamily = keyName;
-                } else {
-                    prevFamily = prevFamily + ", " + keyName;
-                }
-                defaultFamilies.put(family, prevFamily);
+    private TableModel createFontsTableModel(final Font[] fonts,
+            final FontCoverageCatalog coverage,
+            final FontMetricsCatalog metrics,
+            final FontMemoryProfiler profiler,
+            final SequenceCoverage sequences) {
 
-                String prevName = defaultNames.get(name);
-                if (prevName == null) {
-                    prevName = keyName;
-                } else {
-                    prevName = prevName + ", " + keyName;
-                }
-                defaultNames.put(name, prevName);
-            }
-        }
+        // UI Defaultのカラムは、はじめは現在のルックアンドフィールのものを表示する
+        uiDefaultFonts = UIDefaultFonts.fromUIManager();
 
         final String[] columnNames = {"Family", "Name", "Posix", "Japanese",
-            "UI Default"};
+            "UI Default", "Ascent", "Descent", "Leading", "Half Width",
+            "Full Width", "Sample Width", "CJK Mono", "Heap KB", "RSS KB",
+            "Load ms", "Sequences", "Profile"};
 
         DefaultTableModel model = new DefaultTableModel() {
             @Override
@@ -243,6 +403,12 @@ public class JavaEnumFont extends JFrame {
 
             @Override
             public Class<?> getColumnClass(int columnIndex) {
+                if (columnIndex >= 5 && columnIndex <= 10) {
+                    return Float.class;
+                }
+                if (columnIndex >= 12 && columnIndex <= 14) {
+                    return Number.class;
+                }
                 return String.class;
             }
 
@@ -254,6 +420,12 @@ public class JavaEnumFont extends JFrame {
             @Override
             public Object getValueAt(int row, int column) {
                 Font font = fonts[row];
+                if (column >= 5 && column <= 10) {
+                    return getMetricsAt(row, column);
+                }
+                if (column >= 12 && column <= 14) {
+                    return getProfileAt(row, column);
+                }
                 String ret = null;
                 switch (column) {
                     case 0:
@@ -268,45 +440,108 @@ public class JavaEnumFont extends JFrame {
                         ret = font.getPSName();
                         break;
 
-                    case 3: {
-                        ArrayList<String> titles = new ArrayList<>();
-                        if (font.canDisplay('あ')) {
-                            titles.add("ひらがな");
-                        }
-                        if (font.canDisplay('あ') && font.canDisplay('・')) {
-                            titles.add("日本語");
-                        }
-                        if (font.canDisplay(0x29E3D)) {
-                            titles.add("サロゲート");
-                        }
-                        if (font.canDisplay('编')) {
-                            titles.add("簡体字");
-                        }
-                        if (font.canDisplay(0x29E3D) && font.canDisplay(0x1F623)) {
-                            titles.add("絵文字");
+                    case 3:
+                        if (coverage.isProbed(row)) {
+                            ret = FontCoverage.toString(coverage.getMask(row));
                         }
+                        break;
 
-                        StringBuilder buf = new StringBuilder();
-                        for (String title : titles) {
-                            if (buf.length() > 0) {
-                                buf.append(", ");
-                            }
-                            buf.append(title);
+                    case 4:
+                        ret = uiDefaultFonts.getKeys(font);
+                        break;
+
+                    case 11:
+                        if (metrics.isMeasured(row)
+                                && metrics.isCJKMonospaced(row)) {
+                            ret = "Yes";
                         }
-                        ret = buf.toString();
                         break;
-                    }
 
-                    case 4: {
-                        ret = defaultFamilies.get(font.getFamily(Locale.ENGLISH));
-                        if (ret == null) {
-                            ret = defaultNames.get(font.getName());
+                    case 15:
+                        if (sequences.isChecked(row)) {
+                            ret = sequences.toString(row);
                         }
                         break;
-                    }
+
+                    case 16:
+                        ret = getProfileStatus(row);
+                        break;
                 }
                 return ret;
             }
+
+            /**
+             * メトリクスのカラムの値を取得する.<br>
+             * 見やすさのため小数点以下2桁に丸める.<br>
+             * 計測していないか、プローブ文字のグリフがなければnullを返す.<br>
+             */
+            private Float getMetricsAt(int row, int column) {
+                if (!metrics.isMeasured(row)) {
+                    return null;
+                }
+                float value = 0;
+                switch (column) {
+                    case 5:
+                        value = metrics.getAscent(row);
+                        break;
+                    case 6:
+                        value = metrics.getDescent(row);
+                        break;
+                    case 7:
+                        value = metrics.getLeading(row);
+                        break;
+                    case 8:
+                        value = metrics.getHalfWidth(row);
+                        break;
+                    case 9:
+                        value = metrics.getFullWidth(row);
+                        break;
+                    case 10:
+                        value = metrics.getSampleWidth(row);
+                        break;
+                }
+                if (Float.isNaN(value)) {
+                    return null;
+                }
+                return Math.round(value * 100) / 100f;
+            }
+
+            /**
+             * メモリ使用量のカラムの値を取得する.<br>
+             * 計測していないか、計測エラーであればnullを返す.<br>
+             */
+            private Number getProfileAt(int row, int column) {
+                if (!profiler.isProfiled(row) || profiler.getError(row) != null) {
+                    return null;
+                }
+                switch (column) {
+                    case 12:
+                        return profiler.getHeapDelta(row) / 1024;
+                    case 13: {
+                        long rss = profiler.getRssDelta(row);
+                        return rss < 0 ? null : rss;
+                    }
+                    case 14:
+                        return Math.round(profiler.getLoadNanos(row) / 10000d)
+                                / 100f;
+                }
+                return null;
+            }
+
+            /**
+             * メモリ使用量の計測方法、または計測エラーの内容を取得する.<br>
+             * 同じプロセス内で計測した値は、読み込み済みのフォントを除いた増分の推定値である.<br>
+             */
+            private String getProfileStatus(int row) {
+                if (!profiler.isProfiled(row)) {
+                    return null;
+                }
+                String error = profiler.getError(row);
+                if (error != null) {
+                    return "Error: " + error;
+                }
+                return profiler.isIsolated(row) ? "Isolated" : "Incremental";
+            }
         };
         return model;
     }
@@ -315,10 +550,13 @@ public class JavaEnumFont extends JFrame {
      * フォント選択パネルを作成して返す.
      *
      * @param fonts
+     * @param sample サンプル用テキスト
      * @param model
+     * @param coverage フォントがもつグリフの判定 (ファミリーごとの表示に用いる)
      * @return
      */
-    private ExportablePanel createFontsPanel(final Font[] fonts, TableModel model) {
+    private ExportablePanel createFontsPanel(final Font[] fonts, String sample,
+            final TableModel model, final FontCoverageCatalog coverage) {
 
         final JTable fontTable = new JTable(model);
         fontTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
@@ -328,18 +566,51 @@ public class JavaEnumFont extends JFrame {
         adjustColumns(fontTable);
 
         final JTextArea textArea = new JTextArea();
-        String sample = loadText();
         textArea.setText(sample);
 
+        // 選択したフォントで表示できない文字をハイライトする
+        final MissingGlyphHighlighter missingGlyphHighlighter
+                = new MissingGlyphHighlighter(textArea);
+        final JLabel missingLabel = new JLabel();
+        missingGlyphHighlighter.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                missingLabel.setText("Missing: "
+                        + missingGlyphHighlighter.getMissingCount());
+            }
+        });
+
+        AbstractAction actNextMissing = new AbstractAction("Next missing") {
+            {
+                putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0));
+            }
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                missingGlyphHighlighter.selectNext();
+            }
+        };
+        textArea.getInputMap().put(
+                (KeyStroke) actNextMissing.getValue(Action.ACCELERATOR_KEY),
+                "nextMissing");
+        textArea.getActionMap().put("nextMissing", actNextMissing);
+
         final SpinnerNumberModel fontSizeModel = new SpinnerNumberModel(10, 4,
                 48, 1);
         final JSpinner fontSize = new JSpinner(fontSizeModel);
 
         final JPanel samplePanel = new JPanel(new BorderLayout());
 
+        // ファミリーごとにまとめた表示 (最初に切り替えたときに作成する)
+        final JCheckBox groupByFamily = new JCheckBox("Group by family");
+        final FontFamilyTableModel[] familyModel = new FontFamilyTableModel[1];
+
         final JPanel fontSizePanel = new JPanel(new FlowLayout());
+        fontSizePanel.add(groupByFamily);
         fontSizePanel.add(new JLabel("Font size: "));
         fontSizePanel.add(fontSize);
+        fontSizePanel.add(missingLabel);
+        fontSizePanel.add(new JButton(actNextMissing));
 
         samplePanel.add(new JScrollPane(textArea), BorderLayout.CENTER);
         samplePanel.add(fontSizePanel, BorderLayout.NORTH);
@@ -350,7 +621,13 @@ public class JavaEnumFont extends JFrame {
                 int vRow = fontTable.getSelectedRow();
                 if (vRow >= 0) {
                     int mRow = fontTable.convertRowIndexToModel(vRow);
-                    Font font = fonts[mRow];
+                    Font font;
+                    if (fontTable.getModel() instanceof FontFamilyTableModel) {
+                        font = ((FontFamilyTableModel) fontTable.getModel())
+                                .getFontAt(mRow);
+                    } else {
+                        font = fonts[mRow];
+                    }
                     int fontSize = (Integer) fontSizeModel.getValue();
                     Font font2 = new Font(font.getFamily(), font.getStyle(),
                             fontSize);
@@ -377,6 +654,46 @@ public class JavaEnumFont extends JFrame {
             }
         });
 
+        groupByFamily.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (groupByFamily.isSelected()) {
+                    if (familyModel[0] == null) {
+                        familyModel[0] = new FontFamilyTableModel(fonts,
+                                coverage, model);
+                    }
+                    // ファミリーとフェイスの並びを保つため、ソートは行わない
+                    fontTable.setAutoCreateRowSorter(false);
+                    fontTable.setRowSorter(null);
+                    fontTable.setModel(familyModel[0]);
+                } else {
+                    fontTable.setModel(model);
+                    fontTable.setAutoCreateRowSorter(true);
+                }
+                adjustColumns(fontTable);
+            }
+        });
+
+        // ファミリーの行のダブルクリックで展開・折り畳みする
+        fontTable.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() != 2
+                        || !(fontTable.getModel() instanceof FontFamilyTableModel)) {
+                    return;
+                }
+                int vRow = fontTable.rowAtPoint(e.getPoint());
+                if (vRow >= 0) {
+                    FontFamilyTableModel familyTableModel
+                            = (FontFamilyTableModel) fontTable.getModel();
+                    int mRow = fontTable.convertRowIndexToModel(vRow);
+                    if (familyTableModel.isFamilyRow(mRow)) {
+                        familyTableModel.toggleExpanded(mRow);
+                    }
+                }
+            }
+        });
+
         ExportablePanel panel = new ExportablePanel() {
             @Override
             public String getTitle() {
@@ -387,6 +704,14 @@ public class JavaEnumFont extends JFrame {
             public JTable getTable() {
                 return fontTable;
             }
+
+            /**
+             * ファミリーごとの表示中であっても、すべてのカラムをもつフォント一覧を出力する.
+             */
+            @Override
+            public TableModel getExportModel() {
+                return model;
+            }
         };
         panel.setLayout(new BorderLayout());
 
@@ -399,6 +724,286 @@ public class JavaEnumFont extends JFrame {
         return panel;
     }
 
+    /**
+     * 重複フォント表示用パネルを作成して返す.<br>
+     * グリフのアウトラインによる重複の検出は、Analyzeボタンでバックグラウンドで実行する.<br>
+     *
+     * @param fonts
+     * @return
+     */
+    private ExportablePanel createDuplicatesPanel(final Font[] fonts) {
+        final ArrayList<String[]> rows = new ArrayList<>();
+
+        final String[] columnNames = {"Group", "Match", "Family", "Name",
+            "Posix", "Signature"};
+
+        final DefaultTableModel model = new DefaultTableModel() {
+            @Override
+            public int getColumnCount() {
+                return columnNames.length;
+            }
+
+            @Override
+            public String getColumnName(int column) {
+                return columnNames[column];
+            }
+
+            @Override
+            public int getRowCount() {
+                return rows.size();
+            }
+
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return String.class;
+            }
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+
+            @Override
+            public Object getValueAt(int row, int column) {
+                return rows.get(row)[column];
+            }
+        };
+
+        final JTable duplicatesTable = new JTable(model);
+        duplicatesTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        duplicatesTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        duplicatesTable.setAutoCreateRowSorter(true);
+
+        final JLabel statusLabel = new JLabel("Press Analyze to detect duplicate fonts");
+        final JButton btnAnalyze = new JButton("Analyze");
+
+        // 解析はすべてのフォントのアウトラインを取得するため、ボタンを押したときだけ行う
+        btnAnalyze.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                btnAnalyze.setEnabled(false);
+                statusLabel.setText("Analyzing...");
+
+                final long start = System.currentTimeMillis();
+                final DuplicateFontAnalyzer analyzer = new DuplicateFontAnalyzer(fonts);
+                SwingWorker<List<DuplicateFontAnalyzer.Group>, Void> worker
+                        = new SwingWorker<List<DuplicateFontAnalyzer.Group>, Void>() {
+                    @Override
+                    protected List<DuplicateFontAnalyzer.Group> doInBackground()
+                            throws Exception {
+                        return analyzer.analyze();
+                    }
+
+                    @Override
+                    protected void done() {
+                        backgroundJobs.remove(this);
+                        btnAnalyze.setEnabled(true);
+                        if (isCancelled()) {
+                            statusLabel.setText("Cancelled");
+                            return;
+                        }
+                        List<DuplicateFontAnalyzer.Group> groups;
+                        try {
+                            groups = get();
+                        } catch (Exception ex) {
+                            statusLabel.setText(ex.toString());
+                            return;
+                        }
+
+                        rows.clear();
+                        int groupNo = 0;
+                        for (DuplicateFontAnalyzer.Group group : groups) {
+                            groupNo++;
+                            String signature = String.format("%016x",
+                                    group.getSignature());
+                            for (int idx : group.getFontIndices()) {
+                                Font font = fonts[idx];
+                                rows.add(new String[]{
+                                    Integer.toString(groupNo),
+                                    group.isExact() ? "Exact" : "Similar",
+                                    font.getFamily(Locale.ENGLISH),
+                                    font.getName(),
+                                    font.getPSName(),
+                                    signature
+                                });
+                            }
+                        }
+                        model.fireTableDataChanged();
+                        adjustColumns(duplicatesTable);
+
+                        long elapsed = System.currentTimeMillis() - start;
+                        statusLabel.setText(groups.size() + " groups found ("
+                                + elapsed + "ms)");
+                    }
+                };
+                backgroundJobs.add(worker);
+                worker.execute();
+            }
+        });
+
+        JPanel statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        statusPanel.add(btnAnalyze);
+        statusPanel.add(statusLabel);
+
+        ExportablePanel panel = new ExportablePanel() {
+            @Override
+            public JTable getTable() {
+                return duplicatesTable;
+            }
+
+            @Override
+            public String getTitle() {
+                return "Duplicates";
+            }
+        };
+        panel.setLayout(new BorderLayout());
+        panel.add(statusPanel, BorderLayout.NORTH);
+        panel.add(new JScrollPane(duplicatesTable), BorderLayout.CENTER);
+
+        return panel;
+    }
+
+    /**
+     * ルックアンドフィールごとのデフォルトフォント表示用パネルを作成して返す.<br>
+     * すべてのルックアンドフィールのデフォルトの取得はバックグラウンドで実行する.<br>
+     * 取得後は、フォント一覧のUI Defaultのカラムを任意のルックアンドフィールに切り替えられる.<br>
+     *
+     * @param fontsTableModel フォント一覧のテーブルモデル
+     * @return
+     */
+    private ExportablePanel createLookAndFeelFontsPanel(
+            final TableModel fontsTableModel) {
+        final LookAndFeelFontMatrix[] matrix = new LookAndFeelFontMatrix[1];
+
+        final DefaultTableModel model = new DefaultTableModel() {
+            @Override
+            public int getColumnCount() {
+                return matrix[0] == null ? 1 : matrix[0].getLookAndFeelCount() + 1;
+            }
+
+            @Override
+            public String getColumnName(int column) {
+                if (column == 0) {
+                    return "Key";
+                }
+                return matrix[0].getLookAndFeelName(column - 1);
+            }
+
+            @Override
+            public int getRowCount() {
+                return matrix[0] == null ? 0
+                        : matrix[0].getKeyCount();
+            }
+
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return String.class;
+            }
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+
+            @Override
+            public Object getValueAt(int row, int column) {
+                if (column == 0) {
+                    return matrix[0].getKey(row);
+                }
+                LookAndFeelFontMatrix.FontRef ref = matrix[0].getFont(row,
+                        column - 1);
+                return ref == null ? null : ref.toString();
+            }
+        };
+
+        final JTable lafFontsTable = new JTable(model);
+        lafFontsTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        lafFontsTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        lafFontsTable.setAutoCreateRowSorter(true);
+
+        final JLabel statusLabel = new JLabel("Loading look and feels...");
+
+        final JComboBox<String> cmbLookAndFeel = new JComboBox<>(
+                new String[]{"(Current)"});
+        cmbLookAndFeel.setEnabled(false);
+        cmbLookAndFeel.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                int idx = cmbLookAndFeel.getSelectedIndex();
+                if (idx <= 0 || matrix[0] == null) {
+                    uiDefaultFonts = UIDefaultFonts.fromUIManager();
+                } else {
+                    uiDefaultFonts = matrix[0].getUIDefaultFonts(idx - 1);
+                }
+                ((DefaultTableModel) fontsTableModel).fireTableDataChanged();
+            }
+        });
+
+        final long start = System.currentTimeMillis();
+        SwingWorker<LookAndFeelFontMatrix, Void> worker
+                = new SwingWorker<LookAndFeelFontMatrix, Void>() {
+            @Override
+            protected LookAndFeelFontMatrix doInBackground() throws Exception {
+                return LookAndFeelFontMatrix.getInstance();
+            }
+
+            @Override
+            protected void done() {
+                backgroundJobs.remove(this);
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    matrix[0] = get();
+                } catch (Exception ex) {
+                    statusLabel.setText(ex.toString());
+                    return;
+                }
+
+                StringBuilder buf = new StringBuilder();
+                for (int idx = 0; idx < matrix[0].getLookAndFeelCount(); idx++) {
+                    String name = matrix[0].getLookAndFeelName(idx);
+                    cmbLookAndFeel.addItem(name);
+                    String error = matrix[0].getError(idx);
+                    if (error != null) {
+                        buf.append(", ").append(name).append(": ").append(error);
+                    }
+                }
+                cmbLookAndFeel.setEnabled(true);
+
+                model.fireTableStructureChanged();
+                adjustColumns(lafFontsTable);
+
+                long elapsed = System.currentTimeMillis() - start;
+                statusLabel.setText(matrix[0].getKeyCount() + " keys ("
+                        + elapsed + "ms)" + buf);
+            }
+        };
+        backgroundJobs.add(worker);
+        worker.execute();
+
+        JPanel statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        statusPanel.add(new JLabel("UI Default of Fonts: "));
+        statusPanel.add(cmbLookAndFeel);
+        statusPanel.add(statusLabel);
+
+        ExportablePanel panel = new ExportablePanel() {
+            @Override
+            public JTable getTable() {
+                return lafFontsTable;
+            }
+
+            @Override
+            public String getTitle() {
+                return "Look and Feel Fonts";
+            }
+        };
+        panel.setLayout(new BorderLayout());
+        panel.add(statusPanel, BorderLayout.NORTH);
+        panel.add(new JScrollPane(lafFontsTable), BorderLayout.CENTER);
+        return panel;
+    }
+
     /**
      * キャラクターセット表示用テーブルモデルを作成して返す.
      *
@@ -696,9 +1301,14 @@ public class JavaEnumFont extends JFrame {
      * メニューを構築する
      *
      * @param exp Saveコマンド用のハンドラ
+     * @param profiler Profileコマンド用のメモリ使用量の計測
+     * @param scheduler 保存前に完了させ、計測中に一時停止するフォントごとの判定・計測のスケジューラ
+     * @param fontsTableModel 計測結果を表示するフォントのテーブルモデル
      * @return
      */
-    private JMenuBar createMenuBar(final Exportable exp) {
+    private JMenuBar createMenuBar(final Exportable exp,
+            final FontMemoryProfiler profiler, final FontWorkScheduler scheduler,
+            final TableModel fontsTableModel) {
         Toolkit tk = Toolkit.getDefaultToolkit();
         final int shortcutKey = tk.getMenuShortcutKeyMask();
 
@@ -717,7 +1327,7 @@ public class JavaEnumFont extends JFrame {
 
             @Override
             public void actionPerformed(ActionEvent e) {
-                onSave(exp);
+                onSave(exp, scheduler);
             }
         });
         menuFile.add(menuSave);
@@ -738,15 +1348,142 @@ public class JavaEnumFont extends JFrame {
         });
         menuFile.add(menuExit);
 
+        JMenu menuTools = new JMenu("Tools");
+        menuTools.setMnemonic('T');
+        menubar.add(menuTools);
+
+        // 計測中は計測のアクションをすべて無効にする
+        final Action[] profileActions = new Action[2];
+
+        profileActions[0] = new AbstractAction(
+                "Profile font memory (incremental estimate)") {
+            {
+                putValue(MNEMONIC_KEY, (int) 'P');
+            }
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                onProfileFontMemory(profiler, scheduler, fontsTableModel, false,
+                        profileActions);
+            }
+        };
+        menuTools.add(new JMenuItem(profileActions[0]));
+
+        profileActions[1] = new AbstractAction(
+                "Profile font memory in child JVMs") {
+            {
+                putValue(MNEMONIC_KEY, (int) 'J');
+            }
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                onProfileFontMemory(profiler, scheduler, fontsTableModel, true,
+                        profileActions);
+            }
+        };
+        menuTools.add(new JMenuItem(profileActions[1]));
+
         return menubar;
     }
 
+    /**
+     * フォントごとのメモリ使用量をバックグラウンドで計測する.<br>
+     * 計測できたフォントから順にフォントのテーブルに反映する.<br>
+     * 計測結果がほかの処理のメモリ割り当ての影響を受けないように、
+     * フォントごとの判定・計測は一時停止し、重複フォントの解析などの
+     * ほかのバックグラウンド処理は完了を待ってから計測する.<br>
+     * 計測中は計測のアクションを無効にして、計測が重複しないようにする.<br>
+     *
+     * @param profiler メモリ使用量の計測
+     * @param scheduler フォントごとの判定・計測のスケジューラ
+     * @param fontsTableModel 計測結果を表示するフォントのテーブルモデル
+     * @param isolated フォントごとに子プロセスで計測する場合はtrue
+     * @param actions 計測のアクション
+     */
+    private void onProfileFontMemory(final FontMemoryProfiler profiler,
+            final FontWorkScheduler scheduler, final TableModel fontsTableModel,
+            final boolean isolated, final Action[] actions) {
+        final List<SwingWorker<?, ?>> others = new ArrayList<>(backgroundJobs);
+        others.remove(scheduler.getWorker());
+
+        for (Action action : actions) {
+            action.setEnabled(false);
+        }
+
+        SwingWorker<Void, Integer> worker = new SwingWorker<Void, Integer>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                // 保存前の処理などはスケジューラの一時停止を待つため、先に完了を待つ
+                for (SwingWorker<?, ?> other : others) {
+                    try {
+                        other.get();
+                    } catch (CancellationException | ExecutionException ex) {
+                        // 完了していればよく、結果は問わない
+                    }
+                }
+                scheduler.pause();
+                try {
+                    profile();
+
+                } finally {
+                    scheduler.resume();
+                }
+                return null;
+            }
+
+            private void profile() throws Exception {
+                FontMemoryProfiler.Listener listener
+                        = new FontMemoryProfiler.Listener() {
+                    @Override
+                    public void profiled(int idx) {
+                        publish(idx);
+                    }
+                };
+                if (isolated) {
+                    profiler.profileIsolated(
+                            Runtime.getRuntime().availableProcessors(), listener);
+                } else {
+                    profiler.profileInProcess(listener);
+                }
+            }
+
+            @Override
+            protected void process(List<Integer> chunks) {
+                DefaultTableModel model = (DefaultTableModel) fontsTableModel;
+                for (int idx : chunks) {
+                    model.fireTableRowsUpdated(idx, idx);
+                }
+            }
+
+            @Override
+            protected void done() {
+                backgroundJobs.remove(this);
+                for (Action action : actions) {
+                    action.setEnabled(true);
+                }
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    get();
+                } catch (Exception ex) {
+                    JOptionPane.showMessageDialog(JavaEnumFont.this,
+                            ex.toString());
+                }
+            }
+        };
+        backgroundJobs.add(worker);
+        worker.execute();
+    }
+
     /**
      * テーブルの情報をファイルに保存する.
      *
      * @param exp
+     * @param scheduler 保存する前に完了させるフォントごとの判定・計測のスケジューラ
      */
-    private void onSave(Exportable exp) {
+    private void onSave(final Exportable exp,
+            final FontWorkScheduler scheduler) {
         JFileChooser chooser = new JFileChooser() {
             /**
              * OKボタン押下時の処理.
@@ -774,24 +1511,52 @@ public class JavaEnumFont extends JFrame {
         if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
             return;
         }
-        File file = chooser.getSelectedFile();
-        try {
-            Charset cs = Charset.forName("UTF-8");
-            try (FileOutputStream os = new FileOutputStream(file);
-                    Writer wr = new OutputStreamWriter(os, cs)) {
-                exp.export(wr);
+        final File file = chooser.getSelectedFile();
 
+        // 未処理のフォントがあれば、バックグラウンドですべて処理してから保存する
+        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                scheduler.completeAll();
+                return null;
             }
 
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, ex.toString());
-        }
+            @Override
+            protected void done() {
+                backgroundJobs.remove(this);
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    get();
+                    Charset cs = Charset.forName("UTF-8");
+                    try (FileOutputStream os = new FileOutputStream(file);
+                            Writer wr = new OutputStreamWriter(os, cs)) {
+                        exp.export(wr);
+
+                    }
+
+                } catch (Exception ex) {
+                    JOptionPane.showMessageDialog(JavaEnumFont.this,
+                            ex.toString());
+                }
+            }
+        };
+        backgroundJobs.add(worker);
+        worker.execute();
     }
 
     /**
      * 終了する.
      */
     protected void onClose() {
+        for (SwingWorker<?, ?> worker : new ArrayList<>(backgroundJobs)) {
+            worker.cancel(true);
+        }
+        if (httpServer != null) {
+            httpServer.stop();
+            httpServer = null;
+        }
         dispose();
     }
 
@@ -846,8 +1611,8 @@ public class JavaEnumFont extends JFrame {
      *
      * @return
      */
-    private String loadText() {
-        ProtectionDomain pd = getClass().getProtectionDomain();
+    private static String loadText() {
+        ProtectionDomain pd = JavaEnumFont.class.getProtectionDomain();
         CodeSource codeSource = pd.getCodeSource();
 
         File baseDir = new File(".");
@@ -889,6 +1654,69 @@ public class JavaEnumFont extends JFrame {
                 + "[🎂]";
     }
 
+    /**
+     * 画面を表示しないコマンドを実行する.
+     * <ul>
+     * <li>--collect : フォントの情報を標準出力に出力する</li>
+     * <li>--matrix 構成ファイル : 構成ごとに子プロセスで--collectを実行し、比較表を出力する</li>
+     * <li>--profile-font フォント名 : フォントのメモリ使用量を計測して出力する</li>
+     * <li>--snapshot ファイル [サイズ,...] : 各フォントの描画結果のスナップショットを保存する</li>
+     * <li>--compare 基準ファイル 比較ファイル [しきい値] : スナップショットを比較し、変化したフォントを出力する (終了コードは変化したフォントの数)</li>
+     * </ul>
+     *
+     * @param args 引数
+     * @return コマンドを実行した場合はtrue
+     * @throws Exception
+     */
+    private static boolean runCommand(String... args) throws Exception {
+        Charset cs = Charset.forName("UTF-8");
+        Writer wr = new OutputStreamWriter(System.out, cs);
+
+        if ("--collect".equals(args[0])) {
+            HeadlessCollector.collect(wr);
+            return true;
+        }
+
+        if ("--profile-font".equals(args[0]) && args.length > 1) {
+            FontMemoryProfiler.profileChild(args[1], wr);
+            return true;
+        }
+
+        if ("--snapshot".equals(args[0]) && args.length > 1) {
+            int[] sizes = {12};
+            if (args.length > 2) {
+                String[] tokens = args[2].split(",");
+                sizes = new int[tokens.length];
+                for (int idx = 0; idx < tokens.length; idx++) {
+                    sizes[idx] = Integer.parseInt(tokens[idx].trim());
+                }
+            }
+            new RenderingSnapshot().snapshot(new File(args[1]), loadText(), sizes);
+            return true;
+        }
+
+        if ("--compare".equals(args[0]) && args.length > 2) {
+            int threshold = RenderingSnapshot.DEFAULT_THRESHOLD;
+            if (args.length > 3) {
+                threshold = Integer.parseInt(args[3]);
+            }
+            int changed = new RenderingSnapshot().compare(new File(args[1]),
+                    new File(args[2]), threshold, wr);
+            // 変化したフォントがあれば、その数(最大255)を終了コードとする
+            System.exit(Math.min(changed, 255));
+            return true;
+        }
+
+        if ("--matrix".equals(args[0]) && args.length > 1) {
+            ConfigurationMatrixRunner runner = new ConfigurationMatrixRunner();
+            runner.load(new File(args[1]));
+            runner.run(wr);
+            return true;
+        }
+
+        return false;
+    }
+
     /**
      * エントリポイント
      *
@@ -897,6 +1725,10 @@ public class JavaEnumFont extends JFrame {
      */
     public static void main(String... args) throws Exception {
 
+        if (args.length > 0 && runCommand(args)) {
+            return;
+        }
+
         UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
 
         if (System.getProperty("os.name").contains("Mac")) {
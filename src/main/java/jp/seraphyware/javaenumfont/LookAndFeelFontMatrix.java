@@ -0,0 +1,366 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.EventQueue;
+import java.awt.Font;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.swing.LookAndFeel;
+import javax.swing.UIDefaults;
+import javax.swing.UIManager;
+import javax.swing.UnsupportedLookAndFeelException;
+
+/**
+ * インストールされているすべてのルックアンドフィールについて、
+ * UIのキーごとのデフォルトのフォントを調べた表 (キー x ルックアンドフィール).<br>
+ * ルックアンドフィールはインスタンス化してデフォルトを取得するだけで、現在のものとは差し替えない.<br>
+ * 同じフォントは1つの参照にまとめ、日本語の判定もフォントごとに1回だけ行う.<br>
+ * ルックアンドフィールの初期化は重いため、作成した表はプロセス内でキャッシュする.<br>
+ * ルックアンドフィールのデフォルトの取得はネイティブのツールキットを呼び出すことがあるため、
+ * イベントディスパッチスレッド上でルックアンドフィール1つずつに分けて行い、
+ * 表の組み立てだけを呼び出し元のスレッドで行う.<br>
+ */
+final class LookAndFeelFontMatrix {
+
+    /**
+     * UIのデフォルトとして使われているフォント
+     */
+    static final class FontRef {
+
+        private final String family;
+
+        private final String name;
+
+        private final int style;
+
+        private final int size;
+
+        private final boolean japanese;
+
+        FontRef(String family, String name, int style, int size,
+                boolean japanese) {
+            this.family = family;
+            this.name = name;
+            this.style = style;
+            this.size = size;
+            this.japanese = japanese;
+        }
+
+        public String getFamily() {
+            return family;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isJapanese() {
+            return japanese;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder buf = new StringBuilder(family);
+            if ((style & Font.BOLD) != 0) {
+                buf.append(" bold");
+            }
+            if ((style & Font.ITALIC) != 0) {
+                buf.append(" italic");
+            }
+            buf.append(' ').append(size);
+            if (japanese) {
+                buf.append(" [JP]");
+            }
+            return buf.toString();
+        }
+    }
+
+    /**
+     * キャッシュされた表
+     */
+    private static LookAndFeelFontMatrix cache;
+
+    /**
+     * ルックアンドフィールの名前
+     */
+    private final String[] lookAndFeelNames;
+
+    /**
+     * ルックアンドフィールを使用できない場合の理由、使用できればnull
+     */
+    private final String[] errors;
+
+    /**
+     * UIのキー (ソート済み)
+     */
+    private final String[] keys;
+
+    /**
+     * 共有されたフォントの参照
+     */
+    private final FontRef[] fontRefs;
+
+    /**
+     * キー x ルックアンドフィールごとのフォントの参照のインデックス、なければ-1
+     */
+    private final int[][] matrix;
+
+    /**
+     * ルックアンドフィールごとのデフォルトフォントの対応表 (必要になったときに作成する)
+     */
+    private final UIDefaultFonts[] uiDefaultFonts;
+
+    private LookAndFeelFontMatrix(String[] lookAndFeelNames, String[] errors,
+            String[] keys, FontRef[] fontRefs, int[][] matrix) {
+        this.lookAndFeelNames = lookAndFeelNames;
+        this.errors = errors;
+        this.keys = keys;
+        this.fontRefs = fontRefs;
+        this.matrix = matrix;
+        this.uiDefaultFonts = new UIDefaultFonts[lookAndFeelNames.length];
+    }
+
+    /**
+     * 表を取得する.<br>
+     * 最初の呼び出しでのみ、すべてのルックアンドフィールを初期化して表を作成する.<br>
+     *
+     * @return 表
+     * @throws InterruptedException 中断された場合
+     */
+    public static synchronized LookAndFeelFontMatrix getInstance()
+            throws InterruptedException {
+        if (cache == null) {
+            cache = create();
+        }
+        return cache;
+    }
+
+    /**
+     * すべてのルックアンドフィールのデフォルトを取得して表を作成する.
+     *
+     * @return 表
+     * @throws InterruptedException 中断された場合
+     */
+    private static LookAndFeelFontMatrix create() throws InterruptedException {
+        UIManager.LookAndFeelInfo[] infos = UIManager.getInstalledLookAndFeels();
+        String[] lookAndFeelNames = new String[infos.length];
+        String[] errors = new String[infos.length];
+
+        // ルックアンドフィールごとのキーとフォントの対応
+        List<Map<String, Font>> fontsByLaf = new ArrayList<>();
+        TreeSet<String> allKeys = new TreeSet<>();
+
+        for (int lafIdx = 0; lafIdx < infos.length; lafIdx++) {
+            final UIManager.LookAndFeelInfo info = infos[lafIdx];
+            lookAndFeelNames[lafIdx] = info.getName();
+
+            final Map<String, Font> fonts = new HashMap<>();
+            final String[] error = new String[1];
+            runOnEventQueue(new Runnable() {
+                @Override
+                public void run() {
+                    error[0] = loadFonts(info, fonts);
+                }
+            });
+            fontsByLaf.add(fonts);
+            errors[lafIdx] = error[0];
+            allKeys.addAll(fonts.keySet());
+        }
+
+        String[] keys = allKeys.toArray(new String[allKeys.size()]);
+
+        // 同じフォントは1つの参照にまとめる
+        Map<Font, Integer> refIndices = new HashMap<>();
+        Map<String, String> internedNames = new HashMap<>();
+        List<FontRef> fontRefs = new ArrayList<>();
+
+        int[][] matrix = new int[keys.length][infos.length];
+        for (int keyIdx = 0; keyIdx < keys.length; keyIdx++) {
+            for (int lafIdx = 0; lafIdx < infos.length; lafIdx++) {
+                Font font = fontsByLaf.get(lafIdx).get(keys[keyIdx]);
+                if (font == null) {
+                    matrix[keyIdx][lafIdx] = -1;
+                    continue;
+                }
+                Integer refIdx = refIndices.get(font);
+                if (refIdx == null) {
+                    refIdx = fontRefs.size();
+                    boolean japanese = (FontCoverage.probe(font)
+                            & FontCoverage.JAPANESE) != 0;
+                    fontRefs.add(new FontRef(
+                            intern(internedNames, font.getFamily(Locale.ENGLISH)),
+                            intern(internedNames, font.getName()),
+                            font.getStyle(), font.getSize(), japanese));
+                    refIndices.put(font, refIdx);
+                }
+                matrix[keyIdx][lafIdx] = refIdx;
+            }
+        }
+
+        return new LookAndFeelFontMatrix(lookAndFeelNames, errors, keys,
+                fontRefs.toArray(new FontRef[fontRefs.size()]), matrix);
+    }
+
+    /**
+     * ルックアンドフィールのデフォルトから、キーごとのフォントを取得する.<br>
+     * イベントディスパッチスレッドから呼び出される.<br>
+     *
+     * @param info ルックアンドフィールの情報
+     * @param fonts キーとフォントの対応の格納先
+     * @return ルックアンドフィールを使用できない場合の理由、使用できればnull
+     */
+    private static String loadFonts(UIManager.LookAndFeelInfo info,
+            Map<String, Font> fonts) {
+        try {
+            LookAndFeel laf = createLookAndFeel(info);
+            if (!laf.isSupportedLookAndFeel()) {
+                return "not supported";
+            }
+            UIDefaults defaults = laf.getDefaults();
+            Enumeration<Object> keys = defaults.keys();
+            while (keys.hasMoreElements()) {
+                Object key = keys.nextElement();
+                Object value = defaults.get(key);
+                if (value instanceof Font) {
+                    fonts.put(key.toString(), (Font) value);
+                }
+            }
+            return null;
+
+        } catch (Exception | LinkageError ex) {
+            return ex.toString();
+        }
+    }
+
+    /**
+     * イベントディスパッチスレッド上で実行して、完了するまで待つ.
+     */
+    private static void runOnEventQueue(Runnable runnable)
+            throws InterruptedException {
+        if (EventQueue.isDispatchThread()) {
+            runnable.run();
+            return;
+        }
+        try {
+            EventQueue.invokeAndWait(runnable);
+
+        } catch (InvocationTargetException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /**
+     * ルックアンドフィールをインスタンス化する.<br>
+     * Java9以降ではjava.desktopモジュールが公開していないクラスもあるため、
+     * UIManager#createLookAndFeelがあれば、それを使う.<br>
+     * ただし、それはjava.desktopモジュール内のクラスしか扱えないため、
+     * サードパーティのルックアンドフィールはクラス名からインスタンス化する.<br>
+     *
+     * @param info ルックアンドフィールの情報
+     * @return ルックアンドフィール
+     * @throws Exception インスタンス化できない場合
+     */
+    private static LookAndFeel createLookAndFeel(UIManager.LookAndFeelInfo info)
+            throws Exception {
+        Method createLookAndFeel;
+        try {
+            createLookAndFeel = UIManager.class.getMethod("createLookAndFeel",
+                    String.class);
+        } catch (NoSuchMethodException ex) {
+            return (LookAndFeel) Class.forName(info.getClassName())
+                    .getConstructor().newInstance();
+        }
+        try {
+            return (LookAndFeel) createLookAndFeel.invoke(null, info.getName());
+        } catch (InvocationTargetException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof UnsupportedLookAndFeelException) {
+                try {
+                    return (LookAndFeel) Class.forName(info.getClassName())
+                            .getConstructor().newInstance();
+                } catch (ReflectiveOperationException ex2) {
+                    // クラス名からも使用できなければ、元の理由を報告する
+                    throw (UnsupportedLookAndFeelException) cause;
+                }
+            }
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw ex;
+        }
+    }
+
+    private static String intern(Map<String, String> pool, String value) {
+        String ret = pool.get(value);
+        if (ret == null) {
+            pool.put(value, value);
+            ret = value;
+        }
+        return ret;
+    }
+
+    public int getLookAndFeelCount() {
+        return lookAndFeelNames.length;
+    }
+
+    public String getLookAndFeelName(int lafIdx) {
+        return lookAndFeelNames[lafIdx];
+    }
+
+    /**
+     * ルックアンドフィールを使用できない理由を取得する.
+     *
+     * @param lafIdx ルックアンドフィールのインデックス
+     * @return 理由、使用できればnull
+     */
+    public String getError(int lafIdx) {
+        return errors[lafIdx];
+    }
+
+    public int getKeyCount() {
+        return keys.length;
+    }
+
+    public String getKey(int keyIdx) {
+        return keys[keyIdx];
+    }
+
+    /**
+     * キーとルックアンドフィールに対するフォントを取得する.
+     *
+     * @param keyIdx キーのインデックス
+     * @param lafIdx ルックアンドフィールのインデックス
+     * @return フォント、なければnull
+     */
+    public FontRef getFont(int keyIdx, int lafIdx) {
+        int refIdx = matrix[keyIdx][lafIdx];
+        return refIdx < 0 ? null : fontRefs[refIdx];
+    }
+
+    /**
+     * 指定したルックアンドフィールのデフォルトフォントの対応表を取得する.
+     *
+     * @param lafIdx ルックアンドフィールのインデックス
+     * @return 対応表
+     */
+    public synchronized UIDefaultFonts getUIDefaultFonts(int lafIdx) {
+        if (uiDefaultFonts[lafIdx] == null) {
+            UIDefaultFonts.Builder builder = new UIDefaultFonts.Builder();
+            for (int keyIdx = 0; keyIdx < keys.length; keyIdx++) {
+                FontRef ref = getFont(keyIdx, lafIdx);
+                if (ref != null) {
+                    builder.add(keys[keyIdx], ref.getFamily(), ref.getName());
+                }
+            }
+            uiDefaultFonts[lafIdx] = builder.build();
+        }
+        return uiDefaultFonts[lafIdx];
+    }
+}
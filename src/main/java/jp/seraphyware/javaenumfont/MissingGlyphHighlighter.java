@@ -0,0 +1,475 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Document;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+
+/**
+ * テキストエリアのフォントで表示できない文字をハイライトする.<br>
+ * ドキュメントが編集されたときは、編集された範囲だけを再判定する.<br>
+ * 判定はタイマーで編集が落ち着いてから開始し、大きなテキストは一定の文字数ごとに
+ * 分割して処理することで、入力や貼り付けの応答性を保つ.<br>
+ * 連続する表示できない文字は1つのハイライトにまとめ、ハイライトは開始位置の順に保持する.<br>
+ * ハイライトは{@link Highlighter}には個別に登録せず、テキスト全体に対する1つのハイライトの
+ * ペインタが、描画範囲にあるものだけを二分探索で求めて描画する.<br>
+ * これにより、フォントの変更などで大量のハイライトを破棄する場合も一括で行える.<br>
+ */
+final class MissingGlyphHighlighter {
+
+    /**
+     * 編集から判定を開始するまでの待ち時間(ミリ秒)
+     */
+    private static final int DELAY = 100;
+
+    /**
+     * 1回の処理で判定する最大の文字数
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final JTextArea textArea;
+
+    /**
+     * 表示できない文字の並び
+     */
+    private static final class Run {
+
+        final Position start;
+
+        final Position end;
+
+        /**
+         * 表示できない文字の数
+         */
+        final int count;
+
+        Run(Position start, Position end, int count) {
+            this.start = start;
+            this.end = end;
+            this.count = count;
+        }
+
+        int getStartOffset() {
+            return start.getOffset();
+        }
+
+        int getEndOffset() {
+            return end.getOffset();
+        }
+    }
+
+    private final Highlighter.HighlightPainter painter
+            = new DefaultHighlighter.DefaultHighlightPainter(
+                    new Color(255, 160, 160));
+
+    /**
+     * 描画範囲にある表示できない文字の並びだけを描画するペインタ
+     */
+    private final Highlighter.HighlightPainter runsPainter
+            = new Highlighter.HighlightPainter() {
+        @Override
+        public void paint(Graphics g, int p0, int p1, Shape bounds,
+                JTextComponent c) {
+            paintRuns(g, bounds);
+        }
+    };
+
+    /**
+     * Highlighterに登録したハイライトのタグ、未登録ならばnull
+     */
+    private Object highlightTag;
+
+    /**
+     * 表示できない文字の並び (開始位置の順)
+     */
+    private final List<Run> highlights = new ArrayList<>();
+
+    /**
+     * 表示できない文字の総数
+     */
+    private int missingCount;
+
+    /**
+     * 未判定の範囲の開始位置、なければ-1
+     */
+    private int dirtyStart = -1;
+
+    /**
+     * 未判定の範囲の終了位置
+     */
+    private int dirtyEnd = -1;
+
+    private final Timer timer;
+
+    private GlyphCoverageCache coverage;
+
+    private final List<ChangeListener> listeners = new ArrayList<>();
+
+    private final DocumentListener documentListener = new DocumentListener() {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            int offset = e.getOffset();
+            int length = e.getLength();
+            if (dirtyStart >= 0) {
+                if (dirtyStart >= offset) {
+                    dirtyStart += length;
+                }
+                if (dirtyEnd >= offset) {
+                    dirtyEnd += length;
+                }
+            }
+            markDirty(offset - 1, offset + length + 1);
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            int offset = e.getOffset();
+            int length = e.getLength();
+            if (dirtyStart >= 0) {
+                dirtyStart = shiftRemoved(dirtyStart, offset, length);
+                dirtyEnd = shiftRemoved(dirtyEnd, offset, length);
+            }
+            markDirty(offset - 1, offset + 1);
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            // 属性の変更は対象外
+        }
+    };
+
+    /**
+     * コンストラクタ
+     *
+     * @param textArea 対象のテキストエリア
+     */
+    public MissingGlyphHighlighter(JTextArea textArea) {
+        this.textArea = textArea;
+
+        timer = new Timer(DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                processChunk();
+            }
+        });
+        timer.setRepeats(false);
+
+        textArea.getDocument().addDocumentListener(documentListener);
+        textArea.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                String name = evt.getPropertyName();
+                if ("document".equals(name)) {
+                    Document oldDoc = (Document) evt.getOldValue();
+                    if (oldDoc != null) {
+                        oldDoc.removeDocumentListener(documentListener);
+                    }
+                    Document newDoc = (Document) evt.getNewValue();
+                    if (newDoc != null) {
+                        newDoc.addDocumentListener(documentListener);
+                    }
+                    reset();
+
+                } else if ("font".equals(name)) {
+                    reset();
+                }
+            }
+        });
+
+        reset();
+    }
+
+    /**
+     * 判定結果の変更を通知するリスナを登録する.
+     *
+     * @param l リスナ
+     */
+    public void addChangeListener(ChangeListener l) {
+        listeners.add(l);
+    }
+
+    /**
+     * 表示できない文字の数を取得する.
+     *
+     * @return 表示できない文字の数
+     */
+    public int getMissingCount() {
+        return missingCount;
+    }
+
+    /**
+     * キャレットの位置より後にある、次の表示できない文字を選択する.<br>
+     * 後ろになければ先頭から探す.<br>
+     *
+     * @return 選択できた場合はtrue
+     */
+    public boolean selectNext() {
+        if (highlights.isEmpty()) {
+            return false;
+        }
+        int selStart = textArea.getSelectionStart();
+        int from = selStart == textArea.getSelectionEnd() ? selStart - 1 : selStart;
+        int idx = findFirstStartingAfter(from);
+        if (idx >= highlights.size()) {
+            idx = 0;
+        }
+        Run highlight = highlights.get(idx);
+        textArea.setCaretPosition(highlight.getStartOffset());
+        textArea.moveCaretPosition(highlight.getEndOffset());
+        textArea.requestFocusInWindow();
+        return true;
+    }
+
+    /**
+     * すべてのハイライトを破棄して、テキスト全体を再判定する.
+     */
+    private void reset() {
+        if (highlightTag == null) {
+            try {
+                highlightTag = textArea.getHighlighter().addHighlight(0, 0,
+                        runsPainter);
+            } catch (BadLocationException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+        highlights.clear();
+        missingCount = 0;
+        textArea.repaint();
+
+        Font font = textArea.getFont();
+        coverage = font == null ? null : GlyphCoverageCache.getInstance(font);
+
+        dirtyStart = -1;
+        dirtyEnd = -1;
+        markDirty(0, textArea.getDocument().getLength());
+        fireStateChanged();
+    }
+
+    /**
+     * 未判定の範囲に追加して、タイマーを再始動する.
+     */
+    private void markDirty(int start, int end) {
+        int length = textArea.getDocument().getLength();
+        start = Math.max(0, start);
+        end = Math.min(length, end);
+        if (dirtyStart < 0) {
+            dirtyStart = start;
+            dirtyEnd = end;
+        } else {
+            dirtyStart = Math.min(dirtyStart, start);
+            dirtyEnd = Math.max(dirtyEnd, end);
+        }
+        timer.restart();
+    }
+
+    private static int shiftRemoved(int pos, int offset, int length) {
+        if (pos >= offset + length) {
+            return pos - length;
+        }
+        if (pos > offset) {
+            return offset;
+        }
+        return pos;
+    }
+
+    /**
+     * 未判定の範囲の先頭から一定の文字数を判定する.<br>
+     * 範囲が残っていれば、続きをタイマーで処理する.<br>
+     */
+    private void processChunk() {
+        if (dirtyStart < 0) {
+            return;
+        }
+        Document doc = textArea.getDocument();
+        int length = doc.getLength();
+        int start = Math.min(dirtyStart, length);
+        int end = Math.min(Math.min(dirtyEnd, length), start + CHUNK_SIZE);
+        try {
+            // サロゲートペアを分断しないようにする
+            if (start > 0 && start < length
+                    && Character.isLowSurrogate(doc.getText(start, 1).charAt(0))
+                    && Character.isHighSurrogate(doc.getText(start - 1, 1).charAt(0))) {
+                start--;
+            }
+            if (end > 0 && end < length
+                    && Character.isHighSurrogate(doc.getText(end - 1, 1).charAt(0))) {
+                end++;
+            }
+        } catch (BadLocationException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        // 範囲に重なるハイライトを一括で除去し、その分だけ範囲を広げて判定し直す
+        int idx = findFirstEndingAtOrAfter(start);
+        int idxEnd = idx;
+        while (idxEnd < highlights.size()) {
+            Run highlight = highlights.get(idxEnd);
+            if (highlight.getStartOffset() > end) {
+                break;
+            }
+            start = Math.min(start, highlight.getStartOffset());
+            end = Math.max(end, highlight.getEndOffset());
+            missingCount -= highlight.count;
+            idxEnd++;
+        }
+        highlights.subList(idx, idxEnd).clear();
+
+        if (coverage != null && end > start) {
+            try {
+                scan(doc, start, end, idx);
+            } catch (BadLocationException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        if (end >= Math.min(dirtyEnd, length)) {
+            dirtyStart = -1;
+            dirtyEnd = -1;
+        } else {
+            dirtyStart = end;
+            timer.restart();
+        }
+        textArea.repaint();
+        fireStateChanged();
+    }
+
+    /**
+     * 指定した範囲の文字を判定して、表示できない文字の並びにハイライトを追加する.
+     *
+     * @param doc ドキュメント
+     * @param start 開始位置
+     * @param end 終了位置
+     * @param insertIdx ハイライトを挿入する位置
+     */
+    private void scan(Document doc, int start, int end, int insertIdx)
+            throws BadLocationException {
+        List<Run> runs = new ArrayList<>();
+        Segment segment = new Segment();
+        doc.getText(start, end - start, segment);
+
+        int runStart = -1;
+        int runCount = 0;
+        int pos = 0;
+        int len = segment.count;
+        while (pos <= len) {
+            boolean missing = false;
+            int charCount = 1;
+            if (pos < len) {
+                int codePoint = Character.codePointAt(segment.array,
+                        segment.offset + pos, segment.offset + len);
+                charCount = Character.charCount(codePoint);
+                missing = !Character.isISOControl(codePoint)
+                        && !coverage.canDisplay(codePoint);
+            }
+            if (missing) {
+                if (runStart < 0) {
+                    runStart = pos;
+                }
+                runCount++;
+
+            } else if (runStart >= 0) {
+                runs.add(new Run(doc.createPosition(start + runStart),
+                        doc.createPosition(start + pos), runCount));
+                missingCount += runCount;
+                runStart = -1;
+                runCount = 0;
+            }
+            pos += charCount;
+        }
+        highlights.addAll(insertIdx, runs);
+    }
+
+    /**
+     * 描画範囲にある表示できない文字の並びを描画する.
+     *
+     * @param g グラフィクス
+     * @param bounds テキストエリアの領域
+     */
+    @SuppressWarnings("deprecation")
+    private void paintRuns(Graphics g, Shape bounds) {
+        if (highlights.isEmpty()) {
+            return;
+        }
+        int from = 0;
+        int to = Integer.MAX_VALUE;
+        Rectangle clip = g.getClipBounds();
+        if (clip != null) {
+            // viewToModel2DはJava9以降のため、Java8でも使えるものを使う
+            from = textArea.viewToModel(new Point(clip.x, clip.y));
+            to = textArea.viewToModel(new Point(clip.x + clip.width,
+                    clip.y + clip.height));
+        }
+        for (int idx = findFirstEndingAtOrAfter(from); idx < highlights.size();
+                idx++) {
+            Run highlight = highlights.get(idx);
+            if (highlight.getStartOffset() > to) {
+                break;
+            }
+            painter.paint(g, highlight.getStartOffset(),
+                    highlight.getEndOffset(), bounds, textArea);
+        }
+    }
+
+    /**
+     * 終了位置が指定した位置以降にある最初のハイライトのインデックスを二分探索で求める.
+     */
+    private int findFirstEndingAtOrAfter(int offset) {
+        int lo = 0;
+        int hi = highlights.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (highlights.get(mid).getEndOffset() < offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 開始位置が指定した位置より後にある最初のハイライトのインデックスを二分探索で求める.
+     */
+    private int findFirstStartingAfter(int offset) {
+        int lo = 0;
+        int hi = highlights.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (highlights.get(mid).getStartOffset() <= offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void fireStateChanged() {
+        ChangeEvent e = new ChangeEvent(this);
+        for (ChangeListener l : listeners) {
+            l.stateChanged(e);
+        }
+    }
+}
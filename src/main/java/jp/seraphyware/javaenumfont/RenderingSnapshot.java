@@ -0,0 +1,473 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * フォントごとにサンプルテキストを描画した画像の知覚ハッシュ(pHash)と縮小画像を
+ * スナップショットとして保存し、別の実行環境でのスナップショットと比較する.<br>
+ * JDKやOSのフォント関連の更新によって、ヒンティングの違いや代替フォントの変化など、
+ * 描画結果が変わったフォントを検出するために用いる.<br>
+ * 描画と比較はフォントごとに独立しているため、スレッドプールで並列に行う.<br>
+ */
+final class RenderingSnapshot {
+
+    private static final String NEWLINE = System.getProperty("line.separator");
+
+    /**
+     * ファイルの識別子
+     */
+    private static final int MAGIC = 0x4a454653; // "JEFS"
+
+    private static final int VERSION = 1;
+
+    /**
+     * 描画する画像の最大幅
+     */
+    private static final int MAX_WIDTH = 2048;
+
+    /**
+     * 知覚ハッシュを求めるための縮小画像の大きさ
+     */
+    private static final int HASH_SIZE = 32;
+
+    /**
+     * 知覚ハッシュに用いる低周波成分の大きさ (8x8=64ビット)
+     */
+    private static final int HASH_BITS = 8;
+
+    /**
+     * 保存する縮小画像の幅
+     */
+    private static final int THUMB_WIDTH = 64;
+
+    /**
+     * 保存する縮小画像の最大の高さ
+     */
+    private static final int THUMB_MAX_HEIGHT = 32;
+
+    /**
+     * 比較の既定のしきい値 (知覚ハッシュのハミング距離)
+     */
+    public static final int DEFAULT_THRESHOLD = 6;
+
+    /**
+     * 1つのフォントとサイズの描画結果
+     */
+    private static final class Entry {
+
+        final String name;
+
+        final int size;
+
+        final long hash;
+
+        final int thumbWidth;
+
+        final int thumbHeight;
+
+        final byte[] thumb;
+
+        Entry(String name, int size, long hash, int thumbWidth, int thumbHeight,
+                byte[] thumb) {
+            this.name = name;
+            this.size = size;
+            this.hash = hash;
+            this.thumbWidth = thumbWidth;
+            this.thumbHeight = thumbHeight;
+            this.thumb = thumb;
+        }
+
+        /**
+         * 比較のキーを取得する.
+         *
+         * @param occurrence 同じフォント名とサイズのエントリの出現順 (1から)
+         * @return フォント名@サイズ、2つめ以降は フォント名#出現順@サイズ
+         */
+        String getKey(int occurrence) {
+            if (occurrence > 1) {
+                return name + "#" + occurrence + "@" + size;
+            }
+            return name + "@" + size;
+        }
+    }
+
+    /**
+     * 比較結果
+     */
+    private static final class Difference {
+
+        final String key;
+
+        final String status;
+
+        final int distance;
+
+        final double thumbDiff;
+
+        Difference(String key, String status, int distance, double thumbDiff) {
+            this.key = key;
+            this.status = status;
+            this.distance = distance;
+            this.thumbDiff = thumbDiff;
+        }
+    }
+
+    /**
+     * 離散コサイン変換の係数表
+     */
+    private static final double[][] DCT = new double[HASH_SIZE][HASH_SIZE];
+
+    static {
+        for (int u = 0; u < HASH_SIZE; u++) {
+            double scale = u == 0 ? Math.sqrt(1d / HASH_SIZE)
+                    : Math.sqrt(2d / HASH_SIZE);
+            for (int x = 0; x < HASH_SIZE; x++) {
+                DCT[u][x] = scale * Math.cos((2 * x + 1) * u * Math.PI
+                        / (2 * HASH_SIZE));
+            }
+        }
+    }
+
+    private final int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * すべてのフォントを指定したサイズで描画し、スナップショットをファイルに保存する.
+     *
+     * @param file 保存先
+     * @param text 描画するテキスト
+     * @param sizes フォントサイズ
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void snapshot(File file, final String text, final int[] sizes)
+            throws IOException, InterruptedException {
+        Font[] fonts = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getAllFonts();
+
+        List<Callable<List<Entry>>> tasks = new ArrayList<>(fonts.length);
+        for (final Font font : fonts) {
+            tasks.add(new Callable<List<Entry>>() {
+                @Override
+                public List<Entry> call() throws Exception {
+                    List<Entry> entries = new ArrayList<>(sizes.length);
+                    for (int size : sizes) {
+                        entries.add(render(font, size, text));
+                    }
+                    return entries;
+                }
+            });
+        }
+
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file))))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(fonts.length * sizes.length);
+            for (List<Entry> entries : invokeAll(tasks)) {
+                for (Entry entry : entries) {
+                    dos.writeUTF(entry.name);
+                    dos.writeInt(entry.size);
+                    dos.writeLong(entry.hash);
+                    dos.writeShort(entry.thumbWidth);
+                    dos.writeShort(entry.thumbHeight);
+                    dos.write(entry.thumb);
+                }
+            }
+        }
+    }
+
+    /**
+     * 基準のスナップショットと新しいスナップショットを比較し、
+     * 描画結果がしきい値を超えて変化したフォントを出力する.
+     *
+     * @param baselineFile 基準のスナップショット
+     * @param currentFile 新しいスナップショット
+     * @param threshold 知覚ハッシュのハミング距離のしきい値
+     * @param wr 出力先
+     * @return 変化したフォントの数
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public int compare(File baselineFile, File currentFile, final int threshold,
+            Writer wr) throws IOException, InterruptedException {
+        final Map<String, Entry> baseline = load(baselineFile);
+        final Map<String, Entry> current = load(currentFile);
+
+        TreeSet<String> keys = new TreeSet<>(baseline.keySet());
+        keys.addAll(current.keySet());
+
+        List<Callable<Difference>> tasks = new ArrayList<>(keys.size());
+        for (final String key : keys) {
+            tasks.add(new Callable<Difference>() {
+                @Override
+                public Difference call() throws Exception {
+                    return diff(key, baseline.get(key), current.get(key),
+                            threshold);
+                }
+            });
+        }
+
+        wr.write("Name@Size\tStatus\tDistance\tThumbnail Diff");
+        wr.write(NEWLINE);
+        int changed = 0;
+        for (Difference difference : invokeAll(tasks)) {
+            if (difference == null) {
+                continue;
+            }
+            changed++;
+            wr.write(difference.key + "\t" + difference.status + "\t"
+                    + difference.distance + "\t"
+                    + String.format("%.2f", difference.thumbDiff));
+            wr.write(NEWLINE);
+        }
+        wr.flush();
+        return changed;
+    }
+
+    /**
+     * 2つの描画結果を比較する.
+     *
+     * @return しきい値を超えて変化していれば比較結果、そうでなければnull
+     */
+    private static Difference diff(String key, Entry base, Entry cur,
+            int threshold) {
+        if (base == null) {
+            return new Difference(key, "ADDED", -1, -1);
+        }
+        if (cur == null) {
+            return new Difference(key, "REMOVED", -1, -1);
+        }
+        int distance = Long.bitCount(base.hash ^ cur.hash);
+
+        // 縮小画像の画素ごとの差の平均 (大きさが異なれば最大値とする)
+        double thumbDiff = 255;
+        if (base.thumbWidth == cur.thumbWidth
+                && base.thumbHeight == cur.thumbHeight) {
+            long sum = 0;
+            for (int idx = 0; idx < base.thumb.length; idx++) {
+                sum += Math.abs((base.thumb[idx] & 0xff) - (cur.thumb[idx] & 0xff));
+            }
+            thumbDiff = base.thumb.length == 0 ? 0
+                    : (double) sum / base.thumb.length;
+        }
+        if (distance <= threshold && thumbDiff < 255) {
+            return null;
+        }
+        return new Difference(key, "CHANGED", distance, thumbDiff);
+    }
+
+    /**
+     * スナップショットのファイルを読み込む.<br>
+     * 同じ名前のフォントが複数ある場合は上書きしないように、
+     * 2つめ以降のキーにファイル内での出現順を付ける.<br>
+     *
+     * @param file ファイル
+     * @return キー(フォント名@サイズ)ごとの描画結果
+     * @throws IOException
+     */
+    private static Map<String, Entry> load(File file) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                throw new IOException("not a snapshot file: " + file);
+            }
+            int count = dis.readInt();
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            for (int idx = 0; idx < count; idx++) {
+                String name = dis.readUTF();
+                int size = dis.readInt();
+                long hash = dis.readLong();
+                int thumbWidth = dis.readShort();
+                int thumbHeight = dis.readShort();
+                byte[] thumb = new byte[thumbWidth * thumbHeight];
+                dis.readFully(thumb);
+                Entry entry = new Entry(name, size, hash, thumbWidth,
+                        thumbHeight, thumb);
+                int occurrence = 1;
+                while (entries.containsKey(entry.getKey(occurrence))) {
+                    occurrence++;
+                }
+                entries.put(entry.getKey(occurrence), entry);
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * タスクをスレッドプールで並列に実行し、投入した順に結果を返す.
+     */
+    private <T> List<T> invokeAll(List<Callable<T>> tasks)
+            throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<T> results = new ArrayList<>(tasks.size());
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException ex) {
+                    throw new IOException(ex.getCause());
+                }
+            }
+            return Collections.unmodifiableList(results);
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * フォントでテキストを描画して、知覚ハッシュと縮小画像を求める.
+     *
+     * @param font フォント
+     * @param size フォントサイズ
+     * @param text テキスト
+     * @return 描画結果
+     */
+    private static Entry render(Font font, int size, String text) {
+        Font font2 = font.deriveFont((float) size);
+        String[] lines = text.split("\r\n|\r|\n");
+
+        BufferedImage dummy = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D dg = dummy.createGraphics();
+        FontMetrics fm = dg.getFontMetrics(font2);
+        int width = 1;
+        for (String line : lines) {
+            width = Math.max(width, fm.stringWidth(line));
+        }
+        width = Math.min(width, MAX_WIDTH);
+        int lineHeight = Math.max(1, fm.getHeight());
+        int height = lineHeight * lines.length;
+        dg.dispose();
+
+        BufferedImage img = new BufferedImage(width, height,
+                BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = img.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.setColor(Color.BLACK);
+            g.setFont(font2);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                    RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            int y = fm.getAscent();
+            for (String line : lines) {
+                g.drawString(line, 0, y);
+                y += lineHeight;
+            }
+        } finally {
+            g.dispose();
+        }
+
+        byte[] pixels = ((DataBufferByte) img.getRaster().getDataBuffer())
+                .getData();
+
+        long hash = computeHash(pixels, width, height);
+
+        int thumbHeight = Math.max(1, Math.min(THUMB_MAX_HEIGHT,
+                height * THUMB_WIDTH / width));
+        byte[] thumb = new byte[THUMB_WIDTH * thumbHeight];
+        double[] scaled = scale(pixels, width, height, THUMB_WIDTH, thumbHeight);
+        for (int idx = 0; idx < thumb.length; idx++) {
+            thumb[idx] = (byte) Math.round(scaled[idx]);
+        }
+
+        return new Entry(font.getName(), size, hash, THUMB_WIDTH, thumbHeight,
+                thumb);
+    }
+
+    /**
+     * 知覚ハッシュ(pHash)を求める.<br>
+     * 32x32に縮小した画像の離散コサイン変換のうち、直流成分を除く低周波の8x8成分が
+     * 中央値より大きいかどうかをビットにする.<br>
+     */
+    private static long computeHash(byte[] pixels, int width, int height) {
+        double[] scaled = scale(pixels, width, height, HASH_SIZE, HASH_SIZE);
+
+        // 行方向、列方向の順に変換する (低周波の成分だけを求める)
+        double[] rows = new double[HASH_BITS * HASH_SIZE];
+        for (int u = 0; u < HASH_BITS; u++) {
+            for (int y = 0; y < HASH_SIZE; y++) {
+                double sum = 0;
+                for (int x = 0; x < HASH_SIZE; x++) {
+                    sum += DCT[u][x] * scaled[y * HASH_SIZE + x];
+                }
+                rows[u * HASH_SIZE + y] = sum;
+            }
+        }
+        double[] coeffs = new double[HASH_BITS * HASH_BITS];
+        for (int v = 0; v < HASH_BITS; v++) {
+            for (int u = 0; u < HASH_BITS; u++) {
+                double sum = 0;
+                for (int y = 0; y < HASH_SIZE; y++) {
+                    sum += DCT[v][y] * rows[u * HASH_SIZE + y];
+                }
+                coeffs[v * HASH_BITS + u] = sum;
+            }
+        }
+
+        double[] sorted = new double[coeffs.length - 1];
+        System.arraycopy(coeffs, 1, sorted, 0, sorted.length);
+        Arrays.sort(sorted);
+        double median = sorted[sorted.length / 2];
+
+        long hash = 0;
+        for (int idx = 1; idx < coeffs.length; idx++) {
+            if (coeffs[idx] > median) {
+                hash |= 1L << idx;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * グレースケール画像を面積平均で縮小する.
+     */
+    private static double[] scale(byte[] pixels, int width, int height,
+            int dstWidth, int dstHeight) {
+        double[] sums = new double[dstWidth * dstHeight];
+        int[] counts = new int[dstWidth * dstHeight];
+        for (int y = 0; y < height; y++) {
+            int dy = y * dstHeight / height;
+            for (int x = 0; x < width; x++) {
+                int dx = x * dstWidth / width;
+                int idx = dy * dstWidth + dx;
+                sums[idx] += pixels[y * width + x] & 0xff;
+                counts[idx]++;
+            }
+        }
+        for (int idx = 0; idx < sums.length; idx++) {
+            sums[idx] = counts[idx] == 0 ? 255 : sums[idx] / counts[idx];
+        }
+        return sums;
+    }
+}
@@ -0,0 +1,192 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.util.Arrays;
+
+/**
+ * 絵文字のZWJシーケンスや肌の色の修飾、国旗、異体字セレクタ(IVS)などの
+ * 複数のコードポイントからなる文字(書記素クラスタ)を、フォントが1つのグリフとして
+ * 表示できるか判定する.<br>
+ * フォントごとに、すべてのシーケンスを空白で区切って連結した文字列を
+ * {@link Font#layoutGlyphVector(FontRenderContext, char[], int, int, int)}で1回だけシェーピングし、
+ * グリフの元の文字位置から各シーケンスに対応するグリフを求める.<br>
+ * シーケンスが欠落グリフでない1つの可視グリフになれば表示可能とみなす.<br>
+ * 判定結果はフォントのインデックスごとにビットマスクとしてキャッシュする.<br>
+ * なお、絵文字表示の異体字セレクタ(VS16)単独のシーケンスは判定しない.<br>
+ * VS16は不可視のグリフとなり、絵文字表示のないフォントでも基底文字の1グリフになる一方、
+ * 絵文字フォントでは基底文字単独でも同じ絵文字のグリフになるため、グリフからは区別できない.<br>
+ */
+final class SequenceCoverage {
+
+    /**
+     * 判定するシーケンスの表示名
+     */
+    private static final String[] NAMES = {"ZWJ", "Skin", "Flag", "Keycap",
+        "IVS"};
+
+    /**
+     * 判定するシーケンス (NAMESと同じ順)
+     */
+    private static final String[] SEQUENCES = {
+        // 家族 (男性 ZWJ 女性 ZWJ 女の子)
+        new String(new int[]{0x1F468, 0x200D, 0x1F469, 0x200D, 0x1F467}, 0, 5),
+        // サムズアップ + 肌の色(中間)
+        new String(new int[]{0x1F44D, 0x1F3FD}, 0, 2),
+        // 日本の国旗 (地域指示記号 J P)
+        new String(new int[]{0x1F1EF, 0x1F1F5}, 0, 2),
+        // 1 + 絵文字表示の異体字セレクタ + 囲みキーキャップ
+        new String(new int[]{0x31, 0xFE0F, 0x20E3}, 0, 3),
+        // 葛 + 異体字セレクタ(IVS)
+        new String(new int[]{0x845B, 0xE0100}, 0, 2)
+    };
+
+    /**
+     * IVSのシーケンスのインデックス.<br>
+     * IVSに対応していないフォントでも、異体字セレクタを無視して基底文字の
+     * グリフが1つだけ得られるため、基底文字単独のグリフと異なる場合のみ表示可能とみなす.<br>
+     */
+    private static final int IVS_INDEX = 4;
+
+    /**
+     * グリフが存在しないことを示す不可視のグリフコード
+     */
+    private static final int INVISIBLE_GLYPH_ID = 0xffff;
+
+    private static final int INVISIBLE_GLYPH_ID2 = 0xfffe;
+
+    /**
+     * すべてのシーケンスを空白で区切って連結した文字列.<br>
+     * 末尾にはIVSの基底文字を単独で加える.<br>
+     */
+    private static final char[] TEXT;
+
+    /**
+     * 文字位置ごとのシーケンスのインデックス、区切りは-1、IVSの基底文字はNAMES.length
+     */
+    private static final int[] SEGMENTS;
+
+    static {
+        StringBuilder buf = new StringBuilder();
+        int[] segments = new int[256];
+        for (int idx = 0; idx <= SEQUENCES.length; idx++) {
+            String seq = idx < SEQUENCES.length ? SEQUENCES[idx]
+                    : new String(Character.toChars(
+                            SEQUENCES[IVS_INDEX].codePointAt(0)));
+            Arrays.fill(segments, buf.length(), buf.length() + seq.length(), idx);
+            buf.append(seq);
+            segments[buf.length()] = -1;
+            buf.append(' ');
+        }
+        TEXT = buf.toString().toCharArray();
+        SEGMENTS = Arrays.copyOf(segments, TEXT.length);
+    }
+
+    private final FontRenderContext frc = new FontRenderContext(null, true, true);
+
+    private final Font[] fonts;
+
+    /**
+     * 判定結果のビットマスク、未判定ならば-1
+     */
+    private final int[] masks;
+
+    /**
+     * コンストラクタ
+     *
+     * @param fonts 対象フォント
+     */
+    public SequenceCoverage(Font[] fonts) {
+        this.fonts = fonts;
+        this.masks = new int[fonts.length];
+        Arrays.fill(masks, -1);
+    }
+
+    /**
+     * 指定したフォントの判定結果を取得する.<br>
+     * 未判定であれば判定して結果をキャッシュする.<br>
+     *
+     * @param idx フォントのインデックス
+     * @return 表示可能なシーケンスのビットマスク
+     */
+    public synchronized int getMask(int idx) {
+        if (masks[idx] < 0) {
+            masks[idx] = check(fonts[idx]);
+        }
+        return masks[idx];
+    }
+
+    public synchronized boolean isChecked(int idx) {
+        return masks[idx] >= 0;
+    }
+
+    /**
+     * 指定したフォントで表示可能なシーケンスの表示名を取得する.
+     *
+     * @param idx フォントのインデックス
+     * @return カンマ区切りの表示名
+     */
+    public String toString(int idx) {
+        int mask = getMask(idx);
+        StringBuilder buf = new StringBuilder();
+        for (int seq = 0; seq < NAMES.length; seq++) {
+            if ((mask & (1 << seq)) != 0) {
+                if (buf.length() > 0) {
+                    buf.append(", ");
+                }
+                buf.append(NAMES[seq]);
+            }
+        }
+        return buf.toString();
+    }
+
+    /**
+     * フォントでシーケンスをシェーピングして判定する.
+     *
+     * @param font フォント
+     * @return 表示可能なシーケンスのビットマスク
+     */
+    private int check(Font font) {
+        GlyphVector gv = font.layoutGlyphVector(frc, TEXT, 0, TEXT.length,
+                Font.LAYOUT_LEFT_TO_RIGHT);
+        int missingCode = font.getMissingGlyphCode();
+
+        // シーケンスごとの可視グリフの数と、最後の可視グリフ
+        int numSegments = SEQUENCES.length + 1;
+        int[] counts = new int[numSegments];
+        int[] glyphs = new int[numSegments];
+        boolean[] missing = new boolean[numSegments];
+
+        int numGlyphs = gv.getNumGlyphs();
+        for (int i = 0; i < numGlyphs; i++) {
+            int charIdx = gv.getGlyphCharIndex(i);
+            if (charIdx < 0 || charIdx >= SEGMENTS.length) {
+                continue;
+            }
+            int seg = SEGMENTS[charIdx];
+            int code = gv.getGlyphCode(i);
+            if (seg < 0 || code == INVISIBLE_GLYPH_ID
+                    || code == INVISIBLE_GLYPH_ID2) {
+                continue;
+            }
+            counts[seg]++;
+            glyphs[seg] = code;
+            if (code == missingCode) {
+                missing[seg] = true;
+            }
+        }
+
+        int mask = 0;
+        for (int seq = 0; seq < SEQUENCES.length; seq++) {
+            boolean shaped = counts[seq] == 1 && !missing[seq];
+            if (seq == IVS_INDEX) {
+                shaped = shaped && glyphs[seq] != glyphs[SEQUENCES.length];
+            }
+            if (shaped) {
+                mask |= 1 << seq;
+            }
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,123 @@
+package jp.seraphyware.javaenumfont;
+
+import java.awt.Font;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.swing.UIManager;
+
+/**
+ * UIのデフォルトのフォントとして使われているファミリー名、フォント名と、
+ * それを使っているUIのキーの一覧(カンマ区切り)の対応表.<br>
+ */
+final class UIDefaultFonts {
+
+    /**
+     * ファミリー名ごとのキーの一覧
+     */
+    private final Map<String, String> defaultFamilies;
+
+    /**
+     * フォント名ごとのキーの一覧
+     */
+    private final Map<String, String> defaultNames;
+
+    /**
+     * コンストラクタ
+     *
+     * @param defaultFamilies ファミリー名ごとのキーの一覧
+     * @param defaultNames フォント名ごとのキーの一覧
+     */
+    UIDefaultFonts(Map<String, String> defaultFamilies,
+            Map<String, String> defaultNames) {
+        this.defaultFamilies = Collections.unmodifiableMap(defaultFamilies);
+        this.defaultNames = Collections.unmodifiableMap(defaultNames);
+    }
+
+    /**
+     * 現在のルックアンドフィールのUIManagerから対応表を作成する.
+     *
+     * @return 対応表
+     */
+    public static UIDefaultFonts fromUIManager() {
+        Builder builder = new Builder();
+        Enumeration<Object> keys = UIManager.getDefaults().keys();
+        while (keys.hasMoreElements()) {
+            Object key = keys.nextElement();
+            Object value = UIManager.get(key);
+            // LookAndFeelFontMatrixと同じく、FontUIResource以外のFontも対象とする
+            if (value instanceof Font) {
+                Font font = (Font) value;
+                builder.add(key.toString(), font.getFamily(Locale.ENGLISH),
+                        font.getName());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * 指定したフォントをデフォルトとしているUIのキーの一覧を取得する.<br>
+     * ファミリー名で一致するものがなければ、フォント名で探す.<br>
+     *
+     * @param font フォント
+     * @return キーの一覧、なければnull
+     */
+    public String getKeys(Font font) {
+        String ret = defaultFamilies.get(font.getFamily(Locale.ENGLISH));
+        if (ret == null) {
+            ret = defaultNames.get(font.getName());
+        }
+        return ret;
+    }
+
+    /**
+     * 対応表を組み立てる.<br>
+     * キーの一覧はStringBuilderに追記して、最後に文字列にする.<br>
+     */
+    static final class Builder {
+
+        private final HashMap<String, StringBuilder> families = new HashMap<>();
+
+        private final HashMap<String, StringBuilder> names = new HashMap<>();
+
+        /**
+         * キーを追加する.
+         *
+         * @param keyName UIのキー
+         * @param family ファミリー名
+         * @param name フォント名
+         */
+        public void add(String keyName, String family, String name) {
+            append(families, family, keyName);
+            append(names, name, keyName);
+        }
+
+        private static void append(HashMap<String, StringBuilder> map,
+                String name, String keyName) {
+            StringBuilder buf = map.get(name);
+            if (buf == null) {
+                buf = new StringBuilder();
+                map.put(name, buf);
+            } else {
+                buf.append(", ");
+            }
+            buf.append(keyName);
+        }
+
+        public UIDefaultFonts build() {
+            return new UIDefaultFonts(toStringMap(families), toStringMap(names));
+        }
+
+        private static Map<String, String> toStringMap(
+                HashMap<String, StringBuilder> map) {
+            HashMap<String, String> ret = new HashMap<>();
+            for (Map.Entry<String, StringBuilder> entry : map.entrySet()) {
+                ret.put(entry.getKey(), entry.getValue().toString());
+            }
+            return ret;
+        }
+    }
+}